@@ -0,0 +1,138 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+import com.sphenon.basics.message.*;
+import com.sphenon.basics.debug.*;
+import com.sphenon.basics.exception.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+    Shared setup for the benchmarks: context, exceptions of all kinds,
+    runtime step snapshots and a dump node which discards everything.
+
+    Exceptions are created without a message object, so that the
+    benchmarks measure the exception module and not the message module,
+    and depend on nothing of the message module but the Message type.
+*/
+public class BenchmarkSupport {
+
+    static public final String[] KINDS = {
+        "ExceptionAssertionProvedFalse",
+        "ExceptionConfigurationError",
+        "ExceptionContractViolation",
+        "ExceptionEnvironmentError",
+        "ExceptionEnvironmentFailure",
+        "ExceptionExternalIntervention",
+        "ExceptionImpossibleState",
+        "ExceptionInstallationError",
+        "ExceptionInvalidState",
+        "ExceptionLimitation",
+        "ExceptionPostConditionViolation",
+        "ExceptionPreConditionViolation",
+        "ExceptionProtocolViolation",
+        "ExceptionSecurityViolation",
+        "ExceptionVerificationFailure",
+        "ReturnCode",
+        "TransactionFailure"
+    };
+
+    static public class BenchmarkReturnCode extends ReturnCode {
+        public BenchmarkReturnCode (CallContext context, Throwable cause, Message message) {
+            super(context, cause, message);
+        }
+    }
+
+    /**
+       A precondition violation with the given runtime steps, as if it
+       was created within that many steps of an application in progress.
+    */
+    static public class BenchmarkPreConditionViolation extends ExceptionPreConditionViolation {
+        public BenchmarkPreConditionViolation (CallContext context, Throwable cause, Message message, ExceptionRuntimeSteps runtime_steps) {
+            super(context, cause, message);
+            this.runtime_steps = runtime_steps;
+        }
+    }
+
+    static public CallContext getContext () {
+        return RootContext.getRootContext();
+    }
+
+    /**
+       Returns a snapshot of depth runtime steps, shared by all exceptions
+       created with it, like the snapshot of exceptions created within the
+       same step.
+    */
+    static public ExceptionRuntimeSteps createRuntimeSteps (int depth) {
+        String[] steps = new String[depth];
+        for (int i = 0; i < depth; i++) {
+            steps[i] = "benchmark step " + i;
+        }
+        return new ExceptionRuntimeSteps(steps) { };
+    }
+
+    /**
+       Creates an exception of the given kind, which is the simple name of
+       one of the classes in <code>KINDS</code>.
+    */
+    static public Throwable create (CallContext context, String kind, Throwable cause, Message message) {
+        switch (kind) {
+            case "ExceptionAssertionProvedFalse"   : return ExceptionAssertionProvedFalse.createExceptionAssertionProvedFalse(context, cause, message);
+            case "ExceptionConfigurationError"     : return ExceptionConfigurationError.createExceptionConfigurationError(context, cause, message);
+            case "ExceptionContractViolation"      : return ExceptionContractViolation.createExceptionContractViolation(context, cause, message);
+            case "ExceptionEnvironmentError"       : return ExceptionEnvironmentError.createExceptionEnvironmentError(context, cause, message);
+            case "ExceptionEnvironmentFailure"     : return ExceptionEnvironmentFailure.createExceptionEnvironmentFailure(context, cause, message);
+            case "ExceptionExternalIntervention"   : return ExceptionExternalIntervention.createExceptionExternalIntervention(context, cause, message);
+            case "ExceptionImpossibleState"        : return ExceptionImpossibleState.createExceptionImpossibleState(context, cause, message);
+            case "ExceptionInstallationError"      : return ExceptionInstallationError.createExceptionInstallationError(context, cause, message);
+            case "ExceptionInvalidState"           : return ExceptionInvalidState.createExceptionInvalidState(context, cause, message);
+            case "ExceptionLimitation"             : return ExceptionLimitation.createExceptionLimitation(context, cause, message);
+            case "ExceptionPostConditionViolation" : return ExceptionPostConditionViolation.createExceptionPostConditionViolation(context, cause, message);
+            case "ExceptionPreConditionViolation"  : return ExceptionPreConditionViolation.createExceptionPreConditionViolation(context, cause, message);
+            case "ExceptionProtocolViolation"      : return ExceptionProtocolViolation.createExceptionProtocolViolation(context, cause, message);
+            case "ExceptionSecurityViolation"      : return ExceptionSecurityViolation.createExceptionSecurityViolation(context, cause, message);
+            case "ExceptionVerificationFailure"    : return ExceptionVerificationFailure.createExceptionVerificationFailure(context, cause, message);
+            case "ReturnCode"                      : return new BenchmarkReturnCode(context, cause, message);
+            case "TransactionFailure"              : return TransactionFailure.createTransactionFailure(context, cause, message);
+            default                                : throw new IllegalArgumentException("unknown exception kind '" + kind + "'");
+        }
+    }
+
+    /**
+       Returns a dump node which accepts and discards everything; nested
+       nodes are the node itself. Created as a proxy so that it does not
+       depend on the complete interface of DumpNode.
+    */
+    static public DumpNode createNoOpDumpNode () {
+        InvocationHandler handler = (proxy, method, arguments) -> {
+            switch (method.getName()) {
+                case "hashCode" : if (method.getParameterCount() == 0) { return System.identityHashCode(proxy); } break;
+                case "equals"   : if (method.getParameterCount() == 1) { return proxy == arguments[0]; } break;
+                case "toString" : if (method.getParameterCount() == 0) { return "NoOpDumpNode"; } break;
+            }
+            Class result_type = method.getReturnType();
+            if (result_type.isInstance(proxy)) { return proxy; }
+            if (result_type == boolean.class)  { return Boolean.FALSE; }
+            if (result_type == int.class)      { return 0; }
+            if (result_type == long.class)     { return 0L; }
+            return null;
+        };
+        return (DumpNode) Proxy.newProxyInstance(DumpNode.class.getClassLoader(), new Class[] { DumpNode.class }, handler);
+    }
+}
@@ -0,0 +1,65 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.exception.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+    Collecting many causes in a ReturnCode, and retrieving them.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExceptionCausesBenchmark {
+
+    @State(Scope.Thread)
+    static public class Causes {
+
+        @Param({ "10", "1000", "100000" })
+        public int causes;
+
+        protected CallContext context;
+        protected Throwable[] cause_instances;
+
+        @Setup
+        public void setup () {
+            this.context = BenchmarkSupport.getContext();
+            this.cause_instances = new Throwable[this.causes];
+            for (int i = 0; i < this.causes; i++) {
+                this.cause_instances[i] = new IllegalStateException("benchmark cause " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public ReturnCode addCauses (Causes causes) {
+        ReturnCode return_code = new BenchmarkSupport.BenchmarkReturnCode(causes.context, null, null);
+        for (Throwable cause : causes.cause_instances) {
+            return_code.addCause(causes.context, cause);
+        }
+        return return_code;
+    }
+
+    @Benchmark
+    public Throwable[] addCausesAndGetCauses (Causes causes) {
+        return this.addCauses(causes).getCauses(causes.context);
+    }
+}
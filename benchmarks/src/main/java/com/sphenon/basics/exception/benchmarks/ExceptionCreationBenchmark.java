@@ -0,0 +1,70 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.exception.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+    Constructing, and constructing and throwing, each kind of exception.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExceptionCreationBenchmark {
+
+    @Param({
+        "ExceptionAssertionProvedFalse", "ExceptionConfigurationError", "ExceptionContractViolation",
+        "ExceptionEnvironmentError", "ExceptionEnvironmentFailure", "ExceptionExternalIntervention",
+        "ExceptionImpossibleState", "ExceptionInstallationError", "ExceptionInvalidState",
+        "ExceptionLimitation", "ExceptionPostConditionViolation", "ExceptionPreConditionViolation",
+        "ExceptionProtocolViolation", "ExceptionSecurityViolation", "ExceptionVerificationFailure",
+        "ReturnCode", "TransactionFailure"
+    })
+    public String kind;
+
+    protected CallContext context;
+
+    @Setup
+    public void setup () {
+        this.context = BenchmarkSupport.getContext();
+    }
+
+    @Benchmark
+    public Throwable construct () {
+        return BenchmarkSupport.create(this.context, this.kind, null, null);
+    }
+
+    @Benchmark
+    public Throwable constructAndThrow () {
+        try {
+            throwException(BenchmarkSupport.create(this.context, this.kind, null, null));
+            return null;
+        } catch (Throwable t) {
+            return t;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static protected <T extends Throwable> void throwException (Throwable t) throws T {
+        throw (T) t;
+    }
+}
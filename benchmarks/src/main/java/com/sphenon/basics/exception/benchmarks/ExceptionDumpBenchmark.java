@@ -0,0 +1,86 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.debug.*;
+import com.sphenon.basics.exception.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+    Dumping exceptions into a dump node which discards everything, so that
+    only the cost of producing the dump is measured. Only ReturnCodes have
+    several causes, so the number of causes is a parameter of theirs only.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExceptionDumpBenchmark {
+
+    @State(Scope.Thread)
+    static public class Kinds {
+
+        @Param({ "ExceptionPreConditionViolation", "ReturnCode" })
+        public String kind;
+
+        protected CallContext context;
+        protected DumpNode dump_node;
+        protected Dumpable exception;
+
+        @Setup
+        public void setup () {
+            this.context = BenchmarkSupport.getContext();
+            this.dump_node = BenchmarkSupport.createNoOpDumpNode();
+            this.exception = (Dumpable) BenchmarkSupport.create(this.context, this.kind, null, null);
+        }
+    }
+
+    @State(Scope.Thread)
+    static public class Causes {
+
+        @Param({ "0", "1", "10" })
+        public int causes;
+
+        protected CallContext context;
+        protected DumpNode dump_node;
+        protected ReturnCode return_code;
+
+        @Setup
+        public void setup () {
+            this.context = BenchmarkSupport.getContext();
+            this.dump_node = BenchmarkSupport.createNoOpDumpNode();
+            this.return_code = new BenchmarkSupport.BenchmarkReturnCode(this.context, null, null);
+            for (int i = 0; i < this.causes; i++) {
+                this.return_code.addCause(this.context, new IllegalStateException("benchmark cause " + i));
+            }
+        }
+    }
+
+    @Benchmark
+    public DumpNode dump (Kinds kinds) {
+        kinds.exception.dump(kinds.context, kinds.dump_node);
+        return kinds.dump_node;
+    }
+
+    @Benchmark
+    public DumpNode dumpReturnCodeWithCauses (Causes causes) {
+        causes.return_code.dump(causes.context, causes.dump_node);
+        return causes.dump_node;
+    }
+}
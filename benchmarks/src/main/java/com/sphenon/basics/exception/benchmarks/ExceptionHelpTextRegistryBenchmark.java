@@ -0,0 +1,107 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.variatives.tplinst.*;
+import com.sphenon.basics.exception.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+    Looking up help texts with a varying number of registered matchers,
+    none of which matches. Matchers either apply to any throwable or declare
+    a class they apply to, which is not the class of the looked up
+    throwables.
+
+    Texts of throwables which no matcher applies to are cached, so looking
+    up the same throwable again measures a cache hit. getForeignMiss()
+    cycles through more distinct messages than the cache holds, so each
+    lookup misses and resolves the text.
+
+    The registry is global and matchers cannot be unregistered, therefore
+    each parameter combination needs its own fork.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExceptionHelpTextRegistryBenchmark {
+
+    @Param({ "0", "10", "500" })
+    public int matchers;
+
+    @Param({ "false", "true" })
+    public boolean restricted;
+
+    static protected class NonMatchingMatcher implements ExceptionMatcher {
+        protected Class[] applicable_classes;
+
+        public NonMatchingMatcher (boolean restricted) {
+            this.applicable_classes = (restricted ? new Class[] { UnsupportedOperationException.class } : null);
+        }
+
+        public ExceptionMatch matches (CallContext context, Throwable throwable) {
+            return null;
+        }
+
+        public Class[] getApplicableClasses (CallContext context) {
+            return this.applicable_classes;
+        }
+    }
+
+    // several times the default cache capacity
+    static protected final int DISTINCT_MESSAGES = 8192;
+
+    protected CallContext context;
+    protected Throwable own;
+    protected Throwable foreign;
+    protected Throwable[] distinct;
+    protected int next;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        this.context = BenchmarkSupport.getContext();
+        for (int i = 0; i < this.matchers; i++) {
+            ExceptionHelpTextRegistry.register(this.context, new NonMatchingMatcher(this.restricted));
+        }
+        this.own = BenchmarkSupport.create(this.context, "ExceptionPreConditionViolation", null, null);
+        this.foreign = new IllegalStateException("benchmark failure");
+        this.distinct = new Throwable[DISTINCT_MESSAGES];
+        for (int i = 0; i < DISTINCT_MESSAGES; i++) {
+            this.distinct[i] = new IllegalStateException("benchmark failure " + i);
+        }
+    }
+
+    @Benchmark
+    public Variative_String_ getOwn () {
+        return ExceptionHelpTextRegistry.get(this.context, this.own);
+    }
+
+    @Benchmark
+    public Variative_String_ getForeign () {
+        return ExceptionHelpTextRegistry.get(this.context, this.foreign);
+    }
+
+    @Benchmark
+    public Variative_String_ getForeignMiss () {
+        Throwable throwable = this.distinct[this.next];
+        this.next = (this.next + 1) % DISTINCT_MESSAGES;
+        return ExceptionHelpTextRegistry.get(this.context, throwable);
+    }
+}
@@ -0,0 +1,102 @@
+package com.sphenon.basics.exception.benchmarks;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.exception.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+    Detailed messages, rendered for a new exception and retrieved again from
+    an exception whose message was rendered before. Rendering includes the
+    cause, and for ExceptionErrors the runtime steps captured when they
+    were created; only those are therefore measured with a given number of
+    steps.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExceptionMessageBenchmark {
+
+    @State(Scope.Thread)
+    static public class Kinds {
+
+        @Param({ "ExceptionPreConditionViolation", "ReturnCode", "TransactionFailure" })
+        public String kind;
+
+        @Param({ "false", "true" })
+        public boolean with_cause;
+
+        protected CallContext context;
+        protected Throwable cause;
+        protected Throwable rendered;
+
+        @Setup
+        public void setup () {
+            this.context = BenchmarkSupport.getContext();
+            this.cause = (this.with_cause ? new IllegalStateException("benchmark cause") : null);
+            this.rendered = BenchmarkSupport.create(this.context, this.kind, this.cause, null);
+            this.rendered.getMessage();
+        }
+    }
+
+    @State(Scope.Thread)
+    static public class Steps {
+
+        @Param({ "0", "8" })
+        public int step_depth;
+
+        protected CallContext context;
+        protected ExceptionRuntimeSteps runtime_steps;
+        protected Throwable rendered;
+
+        @Setup
+        public void setup () {
+            this.context = BenchmarkSupport.getContext();
+            this.runtime_steps = BenchmarkSupport.createRuntimeSteps(this.step_depth);
+            this.rendered = new BenchmarkSupport.BenchmarkPreConditionViolation(this.context, null, null, this.runtime_steps);
+            this.rendered.getMessage();
+        }
+    }
+
+    @Benchmark
+    public String render (Kinds kinds) {
+        return BenchmarkSupport.create(kinds.context, kinds.kind, kinds.cause, null).getMessage();
+    }
+
+    @Benchmark
+    public String rendered (Kinds kinds) {
+        return kinds.rendered.getMessage();
+    }
+
+    @Benchmark
+    public Throwable baseline (Kinds kinds) {
+        return BenchmarkSupport.create(kinds.context, kinds.kind, kinds.cause, null);
+    }
+
+    @Benchmark
+    public String renderWithSteps (Steps steps) {
+        return new BenchmarkSupport.BenchmarkPreConditionViolation(steps.context, null, null, steps.runtime_steps).getMessage();
+    }
+
+    @Benchmark
+    public String renderedWithSteps (Steps steps) {
+        return steps.rendered.getMessage();
+    }
+}
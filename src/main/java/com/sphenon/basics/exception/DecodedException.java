@@ -0,0 +1,79 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    An exception as received from another process via
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDecoder">ExceptionDecoder</link>.
+
+    It merely describes the original exception, without context, message
+    objects or any other references into the originating process, and
+    does not require the original exception class to be available.
+*/
+public class DecodedException {
+
+    protected String              class_name;
+    protected String              message;
+    protected String              help_message;
+    protected long                fingerprint;
+    protected StackTraceElement[] stack_trace;
+    protected DecodedException[]  causes;
+
+    public DecodedException (String class_name, String message, String help_message, long fingerprint, StackTraceElement[] stack_trace, DecodedException[] causes) {
+        this.class_name          = class_name;
+        this.message             = message;
+        this.help_message        = help_message;
+        this.fingerprint         = fingerprint;
+        this.stack_trace         = stack_trace;
+        this.causes              = causes;
+    }
+
+    public String getClassName () {
+        return this.class_name;
+    }
+
+    public String getMessage () {
+        return this.message;
+    }
+
+    public String getHelpMessage () {
+        return this.help_message;
+    }
+
+    public long getFingerprint () {
+        return this.fingerprint;
+    }
+
+    /**
+       The frames are shared with other decoded exceptions of the same
+       stream and must not be modified.
+    */
+    public StackTraceElement[] getStackTrace () {
+        return this.stack_trace;
+    }
+
+    /**
+       Returns the causes, or null if there are none.
+    */
+    public DecodedException[] getCauses () {
+        return this.causes;
+    }
+
+    public String toString () {
+        return this.class_name + " : " + this.message;
+    }
+}
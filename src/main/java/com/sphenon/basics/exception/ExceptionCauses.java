@@ -0,0 +1,151 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The causes of an exception with multiple causes. Causes may be added
+    concurrently and without locking; null is rejected, since it marks
+    reserved slots which are not yet filled.
+
+    Causes are stored in buckets of doubling size, which are never copied,
+    so appending is amortised constant time. A slot is reserved by
+    incrementing the size, and filled afterwards; readers skip slots which
+    are reserved but not yet filled. Once all adding threads are joined, all
+    causes are visible.
+*/
+public class ExceptionCauses {
+
+    static protected final int FIRST_BUCKET_BITS = 2;
+    static protected final int BUCKETS = 30 - FIRST_BUCKET_BITS;
+
+    static protected final VarHandle SIZE;
+    static protected final VarHandle BUCKET;
+    static protected final VarHandle SLOT;
+    static {
+        try {
+            SIZE = MethodHandles.lookup().findVarHandle(ExceptionCauses.class, "size", int.class);
+        } catch (ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+        BUCKET = MethodHandles.arrayElementVarHandle(Throwable[][].class);
+        SLOT   = MethodHandles.arrayElementVarHandle(Throwable[].class);
+    }
+
+    protected final Throwable[][] buckets;
+    protected volatile int size;
+    protected volatile Throwable[] snapshot;
+
+    public ExceptionCauses () {
+        this.buckets = new Throwable[BUCKETS][];
+    }
+
+    public ExceptionCauses (Throwable first) {
+        this();
+        this.buckets[0] = new Throwable[1 << FIRST_BUCKET_BITS];
+        this.buckets[0][0] = first;
+        this.size = 1;
+    }
+
+    public void add (Throwable cause) {
+        if (cause == null) {
+            throw new IllegalArgumentException("cause must not be null");
+        }
+        int index = (int) SIZE.getAndAdd(this, 1);
+        int position = index + (1 << FIRST_BUCKET_BITS);
+        int bucket = (31 - Integer.numberOfLeadingZeros(position)) - FIRST_BUCKET_BITS;
+        Throwable[] slots = (Throwable[]) BUCKET.getAcquire(this.buckets, bucket);
+        if (slots == null) {
+            Throwable[] new_slots = new Throwable[1 << (bucket + FIRST_BUCKET_BITS)];
+            slots = (Throwable[]) BUCKET.compareAndExchangeRelease(this.buckets, bucket, (Throwable[]) null, new_slots);
+            if (slots == null) { slots = new_slots; }
+        }
+        SLOT.setRelease(slots, position - (1 << (bucket + FIRST_BUCKET_BITS)), cause);
+    }
+
+    public int size () {
+        return this.size;
+    }
+
+    public boolean isEmpty () {
+        return this.size == 0;
+    }
+
+    public Throwable getFirst () {
+        Throwable[] slots = (Throwable[]) BUCKET.getAcquire(this.buckets, 0);
+        return slots == null ? null : (Throwable) SLOT.getAcquire(slots, 0);
+    }
+
+    /**
+       Returns the causes added so far, in the order their slots were
+       reserved. The array is shared between callers until further causes
+       are added and must not be modified.
+    */
+    public Throwable[] toArray () {
+        int size = this.size;
+        Throwable[] result = this.snapshot;
+        if (result != null && result.length == size) {
+            return result;
+        }
+        Throwable[] collected = new Throwable[size];
+        int count = 0;
+        for (int bucket = 0, start = 0; start < size; bucket++) {
+            Throwable[] slots = (Throwable[]) BUCKET.getAcquire(this.buckets, bucket);
+            int bucket_size = 1 << (bucket + FIRST_BUCKET_BITS);
+            if (slots != null) {
+                for (int i = 0; i < bucket_size && start + i < size; i++) {
+                    Throwable cause = (Throwable) SLOT.getAcquire(slots, i);
+                    if (cause != null) {
+                        collected[count++] = cause;
+                    }
+                }
+            }
+            start += bucket_size;
+        }
+        if (count < size) {
+            result = new Throwable[count];
+            System.arraycopy(collected, 0, result, 0, count);
+            return result;
+        }
+        this.snapshot = collected;
+        return collected;
+    }
+
+    /**
+       Returns the causes of any throwable, i.e. those of an exception with
+       multiple causes or else its single cause, or null if there are none.
+       The array must not be modified.
+    */
+    static protected Throwable[] getCauses (CallContext context, Throwable t) {
+        if (t instanceof ExceptionWithMultipleCauses) {
+            return ((ExceptionWithMultipleCauses) t).getCauses(context);
+        }
+        Throwable cause = t.getCause();
+        return cause == null || cause == t ? null : new Throwable[] { cause };
+    }
+
+    static protected int getCauseCount (CallContext context, Throwable t) {
+        Throwable[] causes = getCauses(context, t);
+        return causes == null ? 0 : causes.length;
+    }
+}
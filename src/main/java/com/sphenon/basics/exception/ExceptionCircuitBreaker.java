@@ -0,0 +1,275 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Rejects calls to resources which currently fail, instead of letting
+    each call run into the failure again.
+
+    Failures are counted per resource key in a
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCircuitBreaker.Circuit">Circuit</link>.
+    A failure is an
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionEnvironmentError">ExceptionEnvironmentError</link>
+    (including ExceptionEnvironmentFailure), thrown directly or found
+    among the first causes; other throwables count as calls, but not as
+    failures. Calls and failures are counted in fixed time windows; if
+    within a window the minimum number of calls is reached and the
+    percentage of failures reaches the threshold, the circuit opens.
+
+    While open, calls are rejected by throwing the preallocated
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCircuitOpen">ExceptionCircuitOpen</link>
+    of the circuit. After the open duration one call is let through as a
+    probe (half open): if it succeeds, the circuit closes, if it fails, it
+    opens again. If the probe throws something else than a failure, or
+    does not report within the open duration, the circuit stays half open
+    and another probe is let through after the open duration.
+
+    The number of circuits kept is bounded. If the maximum is reached,
+    circuits which are closed and had no calls within the current and the
+    previous window are discarded; callers still holding such a circuit
+    keep using it, detached from the breaker. If no circuit is idle, the
+    circuit for a new resource is returned without being kept.
+
+    The state of a circuit is kept in two longs, updated by compare and
+    set only, so checking a closed circuit is a single volatile read.
+    Calls still running when the circuit opens may report while it is
+    half open, and are then taken for the probe.
+*/
+public class ExceptionCircuitBreaker {
+
+    static public enum State { CLOSED, OPEN, HALF_OPEN };
+
+    static public interface Operation<T> {
+        public T perform (CallContext context);
+    }
+
+    static protected final State[] STATES = State.values();
+
+    // window: index of the window, calls and failures within it
+    static protected final int  COUNT_BITS   = 20;
+    static protected final long COUNT_MASK   = (1L << COUNT_BITS) - 1;
+    static protected final int  WINDOW_SHIFT = 2 * COUNT_BITS;
+
+    static protected final int  MAXIMUM_CAUSE_DEPTH = 8;
+
+    static protected final VarHandle WINDOW;
+    static protected final VarHandle STATUS;
+    static {
+        try {
+            WINDOW = MethodHandles.lookup().findVarHandle(Circuit.class, "window", long.class);
+            STATUS = MethodHandles.lookup().findVarHandle(Circuit.class, "status", long.class);
+        } catch (ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+    }
+
+    // status: time of the last transition (System.nanoTime) with the
+    // state ordinal in the lowest two bits
+    static protected long status (long time, State state) {
+        return (time & ~3L) | state.ordinal();
+    }
+
+    static public class Circuit {
+        protected final ExceptionCircuitBreaker breaker;
+        protected final String resource;
+        protected final ExceptionCircuitOpen open_exception;
+        protected volatile long window;
+        protected volatile long status;
+        protected final LongAdder rejected = new LongAdder();
+
+        protected Circuit (CallContext context, ExceptionCircuitBreaker breaker, String resource) {
+            this.breaker = breaker;
+            this.resource = resource;
+            // created without context: it is shared by all callers and must
+            // not keep the context of the first one
+            this.open_exception = ExceptionCircuitOpen.createExceptionCircuitOpen(null, resource);
+            this.status = status(System.nanoTime(), State.CLOSED);
+        }
+
+        public String getResource () {
+            return this.resource;
+        }
+
+        public State getState () {
+            return STATES[(int) (this.status & 3)];
+        }
+
+        public long getRejectedCount () {
+            return this.rejected.sum();
+        }
+
+        /**
+           Returns if the call may proceed, otherwise throws the
+           ExceptionCircuitOpen of this circuit. A call which proceeds must
+           be reported via record().
+        */
+        public void acquire (CallContext context) {
+            long s = this.status;
+            if ((s & 3) == State.CLOSED.ordinal()) { return; }
+            long now = System.nanoTime();
+            if (now - (s & ~3L) >= this.breaker.open_nanos && STATUS.compareAndSet(this, s, status(now, State.HALF_OPEN))) {
+                return;
+            }
+            this.rejected.increment();
+            throw this.open_exception;
+        }
+
+        /**
+           Reports the outcome of a call, t is null on success.
+        */
+        public void record (CallContext context, Throwable t) {
+            if (t == this.open_exception) { return; }
+            boolean failure = this.breaker.isFailure(t);
+            long s = this.status;
+            int state = (int) (s & 3);
+            if (state == State.HALF_OPEN.ordinal()) {
+                long now = System.nanoTime();
+                if (failure) {
+                    STATUS.compareAndSet(this, s, status(now, State.OPEN));
+                } else if (t == null && STATUS.compareAndSet(this, s, status(now, State.CLOSED))) {
+                    this.window = 0;
+                }
+                return;
+            }
+            if (state == State.OPEN.ordinal()) { return; }
+
+            long now = System.nanoTime();
+            long index = now / this.breaker.window_nanos;
+            long w, calls, failures;
+            do {
+                w = this.window;
+                if ((w >>> WINDOW_SHIFT) == (index & (-1L >>> WINDOW_SHIFT))) {
+                    calls = (w >>> COUNT_BITS) & COUNT_MASK;
+                    failures = w & COUNT_MASK;
+                } else {
+                    calls = failures = 0;
+                }
+                if (calls < COUNT_MASK) { calls++; }
+                if (failure && failures < COUNT_MASK) { failures++; }
+            } while (WINDOW.compareAndSet(this, w, (index << WINDOW_SHIFT) | (calls << COUNT_BITS) | failures) == false);
+
+            if (    failure
+                 && calls >= this.breaker.minimum_calls
+                 && failures * 100 >= calls * this.breaker.failure_percentage) {
+                STATUS.compareAndSet(this, s, status(now, State.OPEN));
+            }
+        }
+
+        protected boolean isIdle (long now) {
+            long s = this.status;
+            if ((s & 3) != State.CLOSED.ordinal() || now - (s & ~3L) < 2 * this.breaker.window_nanos) { return false; }
+            long index = now / this.breaker.window_nanos;
+            long last = this.window >>> WINDOW_SHIFT;
+            return last != (index & (-1L >>> WINDOW_SHIFT)) && last != ((index - 1) & (-1L >>> WINDOW_SHIFT));
+        }
+
+        public <T> T perform (CallContext context, Operation<T> operation) {
+            this.acquire(context);
+            T result;
+            try {
+                result = operation.perform(context);
+            } catch (Throwable t) {
+                this.record(context, t);
+                throw t;
+            }
+            this.record(context, null);
+            return result;
+        }
+    }
+
+    protected long window_nanos;
+    protected int minimum_calls;
+    protected int failure_percentage;
+    protected long open_nanos;
+    protected int maximum_circuits;
+    protected Map<String,Circuit> circuits;
+
+    /**
+       @param window_millis      length of the windows in which calls and failures are counted
+       @param minimum_calls      calls within a window before the circuit may open
+       @param failure_percentage percentage of failures within a window which opens the circuit, 1 to 100
+       @param open_millis        time before a probe is let through an open circuit
+    */
+    public ExceptionCircuitBreaker (CallContext context, long window_millis, int minimum_calls, int failure_percentage, long open_millis) {
+        this(context, window_millis, minimum_calls, failure_percentage, open_millis, 10000);
+    }
+
+    /**
+       @param maximum_circuits   number of circuits kept, see above
+    */
+    public ExceptionCircuitBreaker (CallContext context, long window_millis, int minimum_calls, int failure_percentage, long open_millis, int maximum_circuits) {
+        if (failure_percentage < 1 || failure_percentage > 100) {
+            throw new IllegalArgumentException("failure percentage must be within 1 and 100, got " + failure_percentage);
+        }
+        this.window_nanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(window_millis));
+        this.minimum_calls = Math.max(1, minimum_calls);
+        this.failure_percentage = failure_percentage;
+        this.open_nanos = TimeUnit.MILLISECONDS.toNanos(open_millis);
+        this.maximum_circuits = Math.max(1, maximum_circuits);
+        this.circuits = new ConcurrentHashMap<String,Circuit>();
+    }
+
+    /**
+       Returns the circuit for the resource; callers which call the same
+       resource frequently should keep the circuit instead of looking it
+       up each time.
+    */
+    public Circuit getCircuit (CallContext context, String resource) {
+        Circuit circuit = this.circuits.get(resource);
+        if (circuit == null) {
+            if (this.circuits.size() >= this.maximum_circuits && this.discardIdle() == false) {
+                return new Circuit(context, this, resource);
+            }
+            circuit = this.circuits.computeIfAbsent(resource, r -> new Circuit(context, this, r));
+        }
+        return circuit;
+    }
+
+    /**
+       Returns whether circuits were discarded.
+    */
+    protected boolean discardIdle () {
+        long now = System.nanoTime();
+        return this.circuits.values().removeIf(circuit -> circuit.isIdle(now));
+    }
+
+    public int getCircuitCount () {
+        return this.circuits.size();
+    }
+
+    public <T> T perform (CallContext context, String resource, Operation<T> operation) {
+        return this.getCircuit(context, resource).perform(context, operation);
+    }
+
+    protected boolean isFailure (Throwable t) {
+        for (int depth = 0; t != null && depth < MAXIMUM_CAUSE_DEPTH; t = t.getCause(), depth++) {
+            if (t instanceof ExceptionEnvironmentError) {
+                return t instanceof ExceptionCircuitOpen == false;
+            }
+        }
+        return false;
+    }
+}
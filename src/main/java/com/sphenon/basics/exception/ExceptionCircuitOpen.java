@@ -0,0 +1,50 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Thrown instead of calling a resource whose circuit is open, see
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCircuitBreaker">ExceptionCircuitBreaker</link>.
+
+    There is exactly one instance per circuit, created along with it and
+    thrown repeatedly; it has neither a stack trace nor suppressed
+    exceptions, and its message is derived from the resource key.
+*/
+public class ExceptionCircuitOpen extends ExceptionEnvironmentFailure
+{
+    protected String resource;
+
+    protected ExceptionCircuitOpen (CallContext cc, String resource) {
+        super(cc, null, null, false, false);
+        this.resource = resource;
+    }
+
+    static public ExceptionCircuitOpen createExceptionCircuitOpen(CallContext cc, String resource) {
+        return new ExceptionCircuitOpen(cc, resource);
+    }
+
+    public String getResource () {
+        return this.resource;
+    }
+
+    protected String renderMessage (boolean detailed) {
+        return "Circuit for resource '" + this.resource + "' is open, call rejected";
+    }
+}
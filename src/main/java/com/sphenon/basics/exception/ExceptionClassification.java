@@ -0,0 +1,243 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Category, severity and retryability of throwables, e.g. for deciding
+    whether a failed operation is worth retrying.
+
+    Classifications are registered per class and inherited by subclasses,
+    like
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionStackTracePolicy">ExceptionStackTracePolicy</link>s;
+    the classes of this package and some common JDK classes are
+    registered initially, further rules, in particular for foreign
+    classes, may be added with set(). The classification resolved for a
+    class is kept in a ClassValue, so get() is a constant time lookup.
+    Each registration increments a generation, which invalidates the
+    resolved classifications of all classes.
+
+    classify() combines the classifications of a throwable and its causes
+    into one verdict: the severity is the highest one within the chain,
+    the category is that of the most severe throwable with a known
+    category, the outermost one on ties. The chain is retryable only if at
+    least one throwable is retryable and none is of a known, non retryable
+    category; throwables of category UNKNOWN, e.g. wrappers, are neutral.
+    Exceptions implementing
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionWithClassification">ExceptionWithClassification</link>
+    cache their verdict until the generation or the number of their own
+    causes changes; causes of causes are assumed not to change anymore.
+*/
+public class ExceptionClassification {
+
+    static public enum Category { UNKNOWN, TRANSIENT, PERMANENT, BUG, INTERRUPTED };
+
+    static public enum Severity { INFO, WARNING, ERROR, FATAL };
+
+    static protected final int MAXIMUM_CAUSE_DEPTH = 16;
+    static protected final int MAXIMUM_CHAIN_SIZE  = 64;
+
+    protected Category category;
+    protected Severity severity;
+    protected boolean retryable;
+    // verdicts only: validity, -1 for registered classifications
+    protected int generation;
+    protected int cause_count;
+
+    protected ExceptionClassification (Category category, Severity severity, boolean retryable, int generation, int cause_count) {
+        this.category = category;
+        this.severity = severity;
+        this.retryable = retryable;
+        this.generation = generation;
+        this.cause_count = cause_count;
+    }
+
+    static public ExceptionClassification create (CallContext context, Category category, Severity severity, boolean retryable) {
+        return new ExceptionClassification(category, severity, retryable, -1, -1);
+    }
+
+    public Category getCategory () {
+        return this.category;
+    }
+
+    public Severity getSeverity () {
+        return this.severity;
+    }
+
+    public boolean isRetryable () {
+        return this.retryable;
+    }
+
+    /**
+       Whether this verdict still applies to an exception with the given
+       number of own causes.
+    */
+    public boolean isCurrent (int cause_count) {
+        return this.generation == generation_counter.get() && this.cause_count == cause_count;
+    }
+
+    public String toString () {
+        return this.category + "/" + this.severity + (this.retryable ? "/retryable" : "");
+    }
+
+    static public final ExceptionClassification UNCLASSIFIED = create(null, Category.UNKNOWN, Severity.ERROR, false);
+
+    static protected class Resolved {
+        protected final int generation;
+        protected final ExceptionClassification classification;
+
+        protected Resolved (int generation, ExceptionClassification classification) {
+            this.generation = generation;
+            this.classification = classification;
+        }
+    }
+
+    static protected final AtomicInteger generation_counter = new AtomicInteger();
+
+    static protected Map<Class,ExceptionClassification> classifications = new ConcurrentHashMap<Class,ExceptionClassification>();
+
+    static protected final ClassValue<Resolved> resolved = new ClassValue<Resolved>() {
+        protected Resolved computeValue (Class c) {
+            int generation = generation_counter.get();
+            ExceptionClassification classification = null;
+            for (Class sc = c; sc != null && classification == null; sc = sc.getSuperclass()) {
+                classification = classifications.get(sc);
+            }
+            return new Resolved(generation, classification == null ? UNCLASSIFIED : classification);
+        }
+    };
+
+    static {
+        set(Throwable.class,                           Category.UNKNOWN,     Severity.ERROR,   false);
+        set(VirtualMachineError.class,                 Category.PERMANENT,   Severity.FATAL,   false);
+        set(LinkageError.class,                        Category.PERMANENT,   Severity.FATAL,   false);
+        set(InterruptedException.class,                Category.INTERRUPTED, Severity.WARNING, false);
+        set(java.util.concurrent.TimeoutException.class, Category.TRANSIENT, Severity.ERROR,   true);
+        set(java.net.SocketTimeoutException.class,     Category.TRANSIENT,   Severity.ERROR,   true);
+        set(java.net.ConnectException.class,           Category.TRANSIENT,   Severity.ERROR,   true);
+        set(ExceptionEnvironmentError.class,           Category.PERMANENT,   Severity.ERROR,   false);
+        set(ExceptionEnvironmentFailure.class,         Category.TRANSIENT,   Severity.ERROR,   true);
+        set(ExceptionCircuitOpen.class,                Category.TRANSIENT,   Severity.WARNING, true);
+        set(ExceptionConfigurationError.class,         Category.PERMANENT,   Severity.ERROR,   false);
+        set(ExceptionInstallationError.class,          Category.PERMANENT,   Severity.ERROR,   false);
+        set(ExceptionVerificationFailure.class,        Category.BUG,         Severity.ERROR,   false);
+        set(ExceptionSecurityViolation.class,          Category.PERMANENT,   Severity.ERROR,   false);
+        set(ExceptionLimitation.class,                 Category.PERMANENT,   Severity.ERROR,   false);
+        set(ExceptionExternalIntervention.class,       Category.INTERRUPTED, Severity.WARNING, false);
+    }
+
+    static protected void set (Class c, Category category, Severity severity, boolean retryable) {
+        classifications.put(c, create(null, category, severity, retryable));
+    }
+
+    /**
+       Registers the classification of the given class and its subclasses,
+       null removes the registration.
+    */
+    static public void set (CallContext context, Class c, ExceptionClassification classification) {
+        if (classification == null) {
+            classifications.remove(c);
+        } else {
+            classifications.put(c, classification);
+        }
+        generation_counter.incrementAndGet();
+    }
+
+    /**
+       Returns the classification of the given class, regardless of any
+       causes.
+    */
+    static public ExceptionClassification get (Class c) {
+        Resolved result = resolved.get(c);
+        if (result.generation != generation_counter.get()) {
+            resolved.remove(c);
+            result = resolved.get(c);
+        }
+        return result.classification;
+    }
+
+    /**
+       Returns the verdict for the throwable and its causes.
+    */
+    static public ExceptionClassification classify (CallContext context, Throwable t) {
+        if (t == null) { return null; }
+        if (t instanceof ExceptionWithClassification) {
+            return ((ExceptionWithClassification) t).getClassification();
+        }
+        return classifyChain(context, t, -1);
+    }
+
+    /**
+       Computes the verdict for the throwable and its causes, to be cached
+       by implementations of ExceptionWithClassification.
+    */
+    static public ExceptionClassification classifyChain (CallContext context, Throwable t, int cause_count) {
+        int generation = generation_counter.get();
+        Chain chain = new Chain();
+        chain.add(context, t, 0);
+        ExceptionClassification category_source = chain.category_source;
+        return new ExceptionClassification(
+                   category_source == null ? Category.UNKNOWN : category_source.category,
+                   chain.severity,
+                   chain.any_retryable && chain.any_blocking == false,
+                   generation, cause_count);
+    }
+
+    static protected class Chain {
+        protected Severity severity = Severity.INFO;
+        protected ExceptionClassification category_source;
+        protected boolean any_retryable;
+        protected boolean any_blocking;
+        protected int size;
+
+        protected void add (CallContext context, Throwable t, int depth) {
+            if (t == null || depth >= MAXIMUM_CAUSE_DEPTH || this.size >= MAXIMUM_CHAIN_SIZE) { return; }
+            this.size++;
+            ExceptionClassification classification = get(t.getClass());
+            if (classification.severity.compareTo(this.severity) > 0) {
+                this.severity = classification.severity;
+            }
+            if (classification.category != Category.UNKNOWN) {
+                // causes are visited after the throwable, hence > prefers outer ones,
+                // which were deliberately chosen to interpret their causes
+                if (this.category_source == null || classification.severity.compareTo(this.category_source.severity) > 0) {
+                    this.category_source = classification;
+                }
+                if (classification.retryable) {
+                    this.any_retryable = true;
+                } else {
+                    this.any_blocking = true;
+                }
+            } else if (classification.retryable) {
+                this.any_retryable = true;
+            }
+            Throwable[] causes = ExceptionCauses.getCauses(context, t);
+            if (causes != null) {
+                for (Throwable cause : causes) {
+                    if (cause != t) {
+                        this.add(context, cause, depth + 1);
+                    }
+                }
+            }
+        }
+    }
+}
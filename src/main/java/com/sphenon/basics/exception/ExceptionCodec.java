@@ -0,0 +1,119 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The compact binary format of exceptions shipped between processes,
+    written by
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionEncoder">ExceptionEncoder</link>
+    and read by
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDecoder">ExceptionDecoder</link>.
+
+    An encoded stream is a sequence of records, each holding one exception
+    including its causes:
+
+    <pre>
+    record    := VERSION exception
+    exception := class:name message:text help:text
+                 fingerprint:int64 frame_count:varint frame*
+                 cause_count:varint exception*
+    frame     := 0 class:name method:name file:name line:zigzag | index+1
+    name      := 0 (null) | 1 text | index+2
+    text      := 0 (null) | length+1:varint utf8_bytes
+    </pre>
+
+    Names and frames are entered into per-stream dictionaries when written
+    literally for the first time, and referred to by their index in the
+    dictionary afterwards. Encoder and decoder therefore have to see the
+    same records in the same order, and a new pair is needed for each
+    stream.
+
+    Messages are transmitted as rendered without details, help texts as
+    rendered in the context of the exception.
+
+    Causes are nested at most MAXIMUM_CAUSE_DEPTH levels deep; deeper
+    records are rejected on decoding, so that corrupt or crafted input
+    cannot exhaust the decoder's stack.
+*/
+public class ExceptionCodec {
+
+    static public final byte VERSION = 2;
+
+    static public final int MAXIMUM_CAUSE_DEPTH = 256;
+
+    static protected void putVarInt (ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static protected int getVarInt (ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { return value; }
+        }
+        throw new IllegalArgumentException("malformed exception record, variable length integer too long");
+    }
+
+    static protected int zigZag (int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static protected int unZigZag (int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static protected void putText (ByteBuffer buffer, String text) {
+        if (text == null) {
+            putVarInt(buffer, 0);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putVarInt(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    static protected String getText (ByteBuffer buffer) {
+        int value = getVarInt(buffer);
+        if (value < 0) {
+            throw new IllegalArgumentException("malformed exception record, negative text length");
+        }
+        int length = value - 1;
+        if (length < 0) { return null; }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String text;
+        if (buffer.hasArray()) {
+            text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,56 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+   Flight recorder event for the construction of an ExceptionError,
+   ReturnCode or TransactionFailure, carrying the exception class, its
+   taxonomy base class and the class of the context. Without an active recording it costs a check of a static
+   flag.
+*/
+@Name("com.sphenon.basics.exception.ExceptionCreation")
+@Label("Exception Creation")
+@Category({"Sphenon", "Exceptions"})
+@Description("Construction of an exception of the sphenon exception taxonomy")
+public class ExceptionCreationEvent extends Event {
+
+    @Label("Exception Class")
+    public Class<?> exceptionClass;
+
+    @Label("Taxonomy")
+    @Description("ExceptionError, ReturnCode or TransactionFailure")
+    public Class<?> taxonomy;
+
+    @Label("Context Class")
+    public Class<?> contextClass;
+
+    static protected void emit (Throwable t, Class taxonomy, CallContext context) {
+        ExceptionCreationEvent event = new ExceptionCreationEvent();
+        if (event.shouldCommit()) {
+            event.exceptionClass = t.getClass();
+            event.taxonomy = taxonomy;
+            event.contextClass = (context == null ? null : context.getClass());
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Reads exceptions from a stream in the format described at
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCodec">ExceptionCodec</link>,
+    as written by an
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionEncoder">ExceptionEncoder</link>.
+
+    Frames read from the dictionary are shared between all decoded
+    exceptions of the stream.
+
+    A decoder belongs to one stream and must not be used concurrently.
+*/
+public class ExceptionDecoder {
+
+    protected List<String>            names;
+    protected List<StackTraceElement> frames;
+
+    public ExceptionDecoder (CallContext context) {
+        this.names  = new ArrayList<String>();
+        this.frames = new ArrayList<StackTraceElement>();
+    }
+
+    /**
+       Reads the next record from the buffer. If the buffer does not yet
+       contain the complete record, its position and the dictionaries are
+       left unchanged and a BufferUnderflowException is thrown, so that the
+       caller may read more data and try again. If the record is malformed,
+       they are left unchanged as well, and an IllegalArgumentException is
+       thrown.
+    */
+    public DecodedException decode (CallContext context, ByteBuffer buffer) {
+        int position = buffer.position();
+        int name_count = this.names.size();
+        int frame_count = this.frames.size();
+        try {
+            byte version = buffer.get();
+            if (version != ExceptionCodec.VERSION) {
+                throw new IllegalArgumentException("unsupported exception record version " + version);
+            }
+            return this.getException(buffer, 0);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            buffer.position(position);
+            this.truncate(name_count, frame_count);
+            throw e;
+        }
+    }
+
+    protected void truncate (int name_count, int frame_count) {
+        while (this.names.size() > name_count) {
+            this.names.remove(this.names.size() - 1);
+        }
+        while (this.frames.size() > frame_count) {
+            this.frames.remove(this.frames.size() - 1);
+        }
+    }
+
+    protected DecodedException getException (ByteBuffer buffer, int depth) {
+        if (depth > ExceptionCodec.MAXIMUM_CAUSE_DEPTH) {
+            throw new IllegalArgumentException("malformed exception record, causes nested deeper than " + ExceptionCodec.MAXIMUM_CAUSE_DEPTH + " levels");
+        }
+        String class_name   = this.getName(buffer);
+        String message      = ExceptionCodec.getText(buffer);
+        String help_message = ExceptionCodec.getText(buffer);
+        long   fingerprint  = buffer.getLong();
+
+        StackTraceElement[] stack_trace = new StackTraceElement[this.getCount(buffer)];
+        for (int i = 0; i < stack_trace.length; i++) {
+            stack_trace[i] = this.getFrame(buffer);
+        }
+
+        int cause_count = this.getCount(buffer);
+        DecodedException[] causes = (cause_count == 0 ? null : new DecodedException[cause_count]);
+        for (int i = 0; i < cause_count; i++) {
+            causes[i] = this.getException(buffer, depth + 1);
+        }
+
+        return new DecodedException(class_name, message, help_message, fingerprint, stack_trace, causes);
+    }
+
+    // each entry takes at least one byte, which allows to reject
+    // corrupt counts before allocating for them
+    protected int getCount (ByteBuffer buffer) {
+        int count = ExceptionCodec.getVarInt(buffer);
+        if (count < 0) {
+            throw new IllegalArgumentException("malformed exception record, negative count");
+        }
+        if (count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    protected String getName (ByteBuffer buffer) {
+        int reference = ExceptionCodec.getVarInt(buffer);
+        if (reference == 0) { return null; }
+        if (reference == 1) {
+            String name = ExceptionCodec.getText(buffer);
+            this.names.add(name);
+            return name;
+        }
+        if (reference < 0 || reference - 2 >= this.names.size()) {
+            throw new IllegalArgumentException("malformed exception record, unknown name " + (reference - 2));
+        }
+        return this.names.get(reference - 2);
+    }
+
+    protected StackTraceElement getFrame (ByteBuffer buffer) {
+        int reference = ExceptionCodec.getVarInt(buffer);
+        if (reference == 0) {
+            String class_name  = this.getName(buffer);
+            String method_name = this.getName(buffer);
+            String file_name   = this.getName(buffer);
+            int    line_number = ExceptionCodec.unZigZag(ExceptionCodec.getVarInt(buffer));
+            if (class_name == null || method_name == null) {
+                throw new IllegalArgumentException("malformed exception record, frame without class or method");
+            }
+            StackTraceElement frame = new StackTraceElement(class_name, method_name, file_name, line_number);
+            this.frames.add(frame);
+            return frame;
+        }
+        if (reference < 0 || reference - 1 >= this.frames.size()) {
+            throw new IllegalArgumentException("malformed exception record, unknown frame " + (reference - 1));
+        }
+        return this.frames.get(reference - 1);
+    }
+}
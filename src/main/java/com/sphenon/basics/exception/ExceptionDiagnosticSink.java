@@ -0,0 +1,39 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Receives diagnostics about questionable use of exceptions, e.g. asking
+    an exception with several causes for its only cause.
+
+    Diagnostics are reported from within exception handling, possibly in
+    hot paths and under locks; implementations must therefore neither
+    block nor render anything on the reporting thread. The default sink
+    is an
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDiagnosticSink_Async">ExceptionDiagnosticSink_Async</link>,
+    others are installed via
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDiagnostics">ExceptionDiagnostics</link>.
+*/
+public interface ExceptionDiagnosticSink {
+    /**
+       Reports that the subject exception is involved in the problem
+       described by reason, a constant text.
+    */
+    public void report(CallContext context, String reason, Throwable subject);
+}
@@ -0,0 +1,55 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    A diagnostic sink which hands diagnostics over to an
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionReporter">ExceptionReporter</link>.
+    Reporting neither locks nor blocks; the reporter's background thread
+    renders the diagnostics, writes each reason about an exception
+    fingerprint once, and counts diagnostics which are dropped or
+    suppressed as duplicates.
+
+    The sink does not own the reporter; closing the reporter ends the
+    delivery of diagnostics as well.
+*/
+public class ExceptionDiagnosticSink_Async implements ExceptionDiagnosticSink {
+
+    protected ExceptionReporter reporter;
+
+    public ExceptionDiagnosticSink_Async (CallContext context, ExceptionReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    public void report (CallContext context, String reason, Throwable subject) {
+        this.reporter.reportDiagnostic(context, reason, subject);
+    }
+
+    public ExceptionReporter getReporter (CallContext context) {
+        return this.reporter;
+    }
+
+    public long getDroppedCount () {
+        return this.reporter.getDroppedCount();
+    }
+
+    public long getDuplicateCount () {
+        return this.reporter.getDuplicateDiagnosticCount();
+    }
+}
@@ -0,0 +1,52 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Holds the
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDiagnosticSink">ExceptionDiagnosticSink</link>
+    of this package. Unless another one is installed, diagnostics are
+    written asynchronously to System.err by the default
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionReporter">ExceptionReporter</link>.
+*/
+public class ExceptionDiagnostics {
+
+    static protected class DefaultHolder {
+        static protected final ExceptionDiagnosticSink instance = new ExceptionDiagnosticSink_Async(null, ExceptionReporter.getDefault(null));
+    }
+
+    static protected volatile ExceptionDiagnosticSink sink;
+
+    static public void setSink (CallContext context, ExceptionDiagnosticSink new_sink) {
+        sink = new_sink;
+    }
+
+    static public ExceptionDiagnosticSink getSink (CallContext context) {
+        ExceptionDiagnosticSink result = sink;
+        return result != null ? result : DefaultHolder.instance;
+    }
+
+    static public void report (CallContext context, String reason, Throwable subject) {
+        try {
+            getSink(context).report(context, reason, subject);
+        } catch (Throwable t) {
+            // diagnostics must never disturb exception handling
+        }
+    }
+}
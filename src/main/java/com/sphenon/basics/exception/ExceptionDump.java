@@ -0,0 +1,140 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.debug.*;
+
+import java.util.Vector;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Dumps the sections shared by all exceptions of this package.
+
+    Technical sections are opened before their contents are computed, so
+    if the dump node does not want technical details, neither the runtime
+    step stack nor the stack trace is determined; consequently, a runtime
+    step section may turn out to be empty. Frames are dumped one by
+    one as they are converted, directly from the frames captured at
+    construction time if the stack trace was not materialised yet.
+
+    Stack traces, runtime step stacks and cause lists longer than a
+    configurable maximum are truncated, the omitted entries are summarised
+    in a final line.
+*/
+public class ExceptionDump {
+
+    static protected volatile int maximum_frames = 1024;
+    static protected volatile int maximum_causes = 256;
+
+    /**
+       Sets the maximum number of frames and runtime steps dumped per
+       exception; a negative value means unbounded.
+    */
+    static public void setMaximumFrames (CallContext context, int maximum) {
+        maximum_frames = maximum;
+    }
+
+    static public int getMaximumFrames () {
+        return maximum_frames;
+    }
+
+    /**
+       Sets the maximum number of causes dumped per exception; a negative
+       value means unbounded.
+    */
+    static public void setMaximumCauses (CallContext context, int maximum) {
+        maximum_causes = maximum;
+    }
+
+    static public int getMaximumCauses () {
+        return maximum_causes;
+    }
+
+    static public void dumpRuntimeSteps (CallContext context, DumpNode dump_node, CallContext exception_context) {
+        DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "RuntimeSteps");
+        if (stack_dump_node == null) { return; }
+        Vector<String> rss = RuntimeStep.getStack(exception_context);
+        if (rss != null) {
+            int maximum = maximum_frames;
+            int count = rss.size();
+            for (int i = 0; i < count && (maximum < 0 || i < maximum); i++) {
+                stack_dump_node.dump(context, rss.get(i));
+            }
+            dumpOmitted(context, stack_dump_node, count, maximum);
+        }
+        stack_dump_node.close(context);
+    }
+
+    static public void dumpRuntimeSteps (CallContext context, DumpNode dump_node, ExceptionRuntimeSteps runtime_steps) {
+        DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "RuntimeSteps");
+        if (stack_dump_node == null) { return; }
+        if (runtime_steps != null) {
+            int maximum = maximum_frames;
+            int count = runtime_steps.size();
+            for (int i = 0; i < count && (maximum < 0 || i < maximum); i++) {
+                stack_dump_node.dump(context, runtime_steps.get(i));
+            }
+            dumpOmitted(context, stack_dump_node, count, maximum);
+        }
+        stack_dump_node.close(context);
+    }
+
+    /**
+       Dumps the stack trace of the throwable, or the given frames captured
+       for it; frames may be null. If has_stack is false, the throwable is
+       known to have an empty stack trace and no section is dumped.
+    */
+    static public void dumpStackTrace (CallContext context, DumpNode dump_node, Throwable t, ExceptionStackFrames frames, boolean has_stack) {
+        if (has_stack == false || (frames != null && frames.size() == 0)) { return; }
+        DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "StackTrace");
+        if (stack_dump_node == null) { return; }
+        int maximum = maximum_frames;
+        if (frames != null) {
+            int count = frames.size();
+            for (int i = 0; i < count && (maximum < 0 || i < maximum); i++) {
+                stack_dump_node.dump(context, frames.getStackTraceElement(i).toString());
+            }
+            dumpOmitted(context, stack_dump_node, count, maximum);
+        } else {
+            StackTraceElement[] stack_trace = t.getStackTrace();
+            for (int i = 0; i < stack_trace.length && (maximum < 0 || i < maximum); i++) {
+                stack_dump_node.dump(context, stack_trace[i].toString());
+            }
+            dumpOmitted(context, stack_dump_node, stack_trace.length, maximum);
+        }
+        stack_dump_node.close(context);
+    }
+
+    static public void dumpCauses (CallContext context, DumpNode dump_node, Throwable[] causes) {
+        if (causes == null || causes.length == 0) { return; }
+        DumpNode causes_dump_node = dump_node.openDump(context, "Causes");
+        if (causes_dump_node == null) { return; }
+        int maximum = maximum_causes;
+        for (int i = 0; i < causes.length && (maximum < 0 || i < maximum); i++) {
+            causes_dump_node.dump(context, "Cause", causes[i]);
+        }
+        dumpOmitted(context, causes_dump_node, causes.length, maximum);
+        causes_dump_node.close(context);
+    }
+
+    static protected void dumpOmitted (CallContext context, DumpNode dump_node, int count, int maximum) {
+        if (maximum >= 0 && count > maximum) {
+            dump_node.dump(context, "... " + (count - maximum) + " more");
+        }
+    }
+}
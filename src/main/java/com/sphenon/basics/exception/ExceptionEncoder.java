@@ -0,0 +1,157 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Writes exceptions to a stream in the format described at
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCodec">ExceptionCodec</link>.
+
+    Context, message objects and other object graphs attached to the
+    exceptions are not transmitted. Frames captured by a bounded stack
+    trace policy are encoded without materialising the stack trace.
+
+    An encoder belongs to one stream and must not be used concurrently.
+*/
+public class ExceptionEncoder {
+
+    static protected volatile int maximum_cause_depth = 32;
+
+    static public void setMaximumCauseDepth (CallContext context, int depth) {
+        maximum_cause_depth = Math.min(depth, ExceptionCodec.MAXIMUM_CAUSE_DEPTH);
+    }
+
+    protected Map<String,Integer>            names;
+    protected List<String>                   name_list;
+    protected Map<StackTraceElement,Integer> frames;
+    protected List<StackTraceElement>        frame_list;
+
+    public ExceptionEncoder (CallContext context) {
+        this.names      = new HashMap<String,Integer>();
+        this.name_list  = new ArrayList<String>();
+        this.frames     = new HashMap<StackTraceElement,Integer>();
+        this.frame_list = new ArrayList<StackTraceElement>();
+    }
+
+    /**
+       Appends a record holding the throwable and its causes to the buffer.
+       If the buffer is too small, its position and the dictionaries are
+       left unchanged and a BufferOverflowException is thrown, so that the
+       caller may flush the buffer and try again.
+    */
+    public void encode (CallContext context, Throwable t, ByteBuffer buffer) {
+        int position = buffer.position();
+        int name_count = this.name_list.size();
+        int frame_count = this.frame_list.size();
+        try {
+            buffer.put(ExceptionCodec.VERSION);
+            this.putException(context, buffer, t, 0, new IdentityHashMap<Throwable,Boolean>());
+        } catch (BufferOverflowException boe) {
+            buffer.position(position);
+            while (this.name_list.size() > name_count) {
+                this.names.remove(this.name_list.remove(this.name_list.size() - 1));
+            }
+            while (this.frame_list.size() > frame_count) {
+                this.frames.remove(this.frame_list.remove(this.frame_list.size() - 1));
+            }
+            throw boe;
+        }
+    }
+
+    protected void putException (CallContext context, ByteBuffer buffer, Throwable t, int depth, Map<Throwable,Boolean> visited) {
+        visited.put(t, Boolean.TRUE);
+        this.putName(buffer, t.getClass().getName());
+        ExceptionCodec.putText(buffer, ExceptionHelpTextRegistry.getRuleMessage(t));
+        ExceptionCodec.putText(buffer, t instanceof ExceptionWithHelpMessage ? ((ExceptionWithHelpMessage) t).getHelpMessage() : null);
+        buffer.putLong(ExceptionFingerprint.get(t));
+
+        ExceptionStackFrames captured_frames = (t instanceof ExceptionError ? ((ExceptionError) t).captured_frames : null);
+        if (captured_frames != null) {
+            ExceptionCodec.putVarInt(buffer, captured_frames.size());
+            for (int i = 0; i < captured_frames.size(); i++) {
+                this.putFrame(buffer, captured_frames.getStackTraceElement(i));
+            }
+        } else {
+            StackTraceElement[] stack_trace = t.getStackTrace();
+            ExceptionCodec.putVarInt(buffer, stack_trace.length);
+            for (StackTraceElement frame : stack_trace) {
+                this.putFrame(buffer, frame);
+            }
+        }
+
+        // causes are selected and marked as visited before any of them is
+        // written, so that the count matches the records which follow
+        Throwable[] causes = ExceptionCauses.getCauses(context, t);
+        List<Throwable> written_causes = null;
+        if (causes != null && depth < maximum_cause_depth) {
+            for (Throwable cause : causes) {
+                if (cause != null && visited.containsKey(cause) == false) {
+                    visited.put(cause, Boolean.TRUE);
+                    if (written_causes == null) { written_causes = new ArrayList<Throwable>(causes.length); }
+                    written_causes.add(cause);
+                }
+            }
+        }
+        ExceptionCodec.putVarInt(buffer, written_causes == null ? 0 : written_causes.size());
+        if (written_causes != null) {
+            for (Throwable cause : written_causes) {
+                this.putException(context, buffer, cause, depth + 1, visited);
+            }
+        }
+    }
+
+    protected void putName (ByteBuffer buffer, String name) {
+        if (name == null) {
+            ExceptionCodec.putVarInt(buffer, 0);
+            return;
+        }
+        Integer index = this.names.get(name);
+        if (index != null) {
+            ExceptionCodec.putVarInt(buffer, index + 2);
+            return;
+        }
+        ExceptionCodec.putVarInt(buffer, 1);
+        ExceptionCodec.putText(buffer, name);
+        this.names.put(name, this.name_list.size());
+        this.name_list.add(name);
+    }
+
+    protected void putFrame (ByteBuffer buffer, StackTraceElement frame) {
+        Integer index = this.frames.get(frame);
+        if (index != null) {
+            ExceptionCodec.putVarInt(buffer, index + 1);
+            return;
+        }
+        ExceptionCodec.putVarInt(buffer, 0);
+        this.putName(buffer, frame.getClassName());
+        this.putName(buffer, frame.getMethodName());
+        this.putName(buffer, frame.getFileName());
+        ExceptionCodec.putVarInt(buffer, ExceptionCodec.zigZag(frame.getLineNumber()));
+        this.frames.put(frame, this.frame_list.size());
+        this.frame_list.add(frame);
+    }
+}
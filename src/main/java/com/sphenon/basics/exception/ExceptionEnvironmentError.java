@@ -31,6 +31,10 @@ public class ExceptionEnvironmentError extends ExceptionError
     protected ExceptionEnvironmentError (CallContext cc, Throwable cause, Message message) {
         super(cc, cause, message);
     }
+
+    protected ExceptionEnvironmentError (CallContext cc, Throwable cause, Message message, boolean enable_suppression, boolean writable_stack_trace) {
+        super(cc, cause, message, enable_suppression, writable_stack_trace);
+    }
     
     static public void createAndThrow(CallContext cc, Message message) {
         throw new ExceptionEnvironmentError(cc, null, message);
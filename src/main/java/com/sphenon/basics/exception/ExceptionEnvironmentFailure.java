@@ -29,6 +29,10 @@ public class ExceptionEnvironmentFailure extends ExceptionEnvironmentError
     protected ExceptionEnvironmentFailure (CallContext cc, Throwable cause, Message message) {
         super(cc, cause, message);
     }
+
+    protected ExceptionEnvironmentFailure (CallContext cc, Throwable cause, Message message, boolean enable_suppression, boolean writable_stack_trace) {
+        super(cc, cause, message, enable_suppression, writable_stack_trace);
+    }
     
     static public void createAndThrow(CallContext cc, Message message) {
         throw new ExceptionEnvironmentFailure(cc, null, message);
@@ -19,8 +19,6 @@ import com.sphenon.basics.context.classes.*;
 import com.sphenon.basics.debug.*;
 import com.sphenon.basics.message.*;
 
-import java.util.Vector;
-
 /** {@EntitySecurityClass User}
 
     @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
@@ -69,24 +67,192 @@ import java.util.Vector;
     to also read and understand the documentation of
     <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/TransactionFailure">TransactionFailure</link>
     and the various implications.
+
+    Capturing of the java stack is controlled per class by an
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionStackTracePolicy">ExceptionStackTracePolicy</link>.
+    With a bounded policy only the topmost frames are recorded, and they
+    are converted into StackTraceElements not before getStackTrace(),
+    printStackTrace() or dump() actually needs them. With an interned
+    policy the frames are kept as indices into a global frame table and
+    shared with the cause, getStackTrace() then builds a new array on each
+    call instead of retaining one.
+
+    The runtime steps are recorded at construction time as well, see
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionRuntimeSteps">ExceptionRuntimeSteps</link>,
+    since the context may have moved on when the exception is reported.
 */
-abstract public class ExceptionError extends java.lang.Error implements Dumpable, WithContext, ExceptionWithHelpMessage {
+abstract public class ExceptionError extends java.lang.Error implements Dumpable, WithContext, ExceptionWithHelpMessage, ExceptionWithFingerprint, ExceptionWithClassification {
     protected CallContext context;
     protected Message message; // complete technical information
     protected MessageText help_message_text; // end user readable
+    protected ExceptionRuntimeSteps runtime_steps; // null: read from context when needed
+    // assigned by fillInStackTrace() while still within the Throwable
+    // constructor, therefore it must not be given an initialiser here
+    protected ExceptionStackFrames captured_frames;
+    protected boolean stack_captured;
+    protected boolean stack_unwritable; // preallocated, setStackTrace() has no effect
+    protected int printing; // guarded by this, prints lending interned frames to Throwable
+    protected volatile ExceptionMessageMemo message_memo;
+    protected volatile long fingerprint;
+    protected volatile ExceptionClassification classification;
 
     protected ExceptionError (CallContext cc, Throwable cause, Message message) {
         this.context = cc;
         this.message = message;
         this.help_message_text = null;
+        this.runtime_steps = ExceptionRuntimeSteps.capture(cc);
         this.initCause(cause);
+        ExceptionStatistics.countCreation(this.getClass());
+        ExceptionCreationEvent.emit(this, ExceptionError.class, cc);
+        ExceptionFlightRecorder.record(this, ExceptionError.class, cc, this.stack_captured, this.captured_frames, this.runtime_steps);
     }
 
     protected ExceptionError (CallContext cc, Throwable cause, Message message, MessageText help_message_text) {
         this.context = cc;
         this.message = message;
         this.help_message_text = help_message_text;
+        this.runtime_steps = ExceptionRuntimeSteps.capture(cc);
         this.initCause(cause);
+        ExceptionStatistics.countCreation(this.getClass());
+        ExceptionCreationEvent.emit(this, ExceptionError.class, cc);
+        ExceptionFlightRecorder.record(this, ExceptionError.class, cc, this.stack_captured, this.captured_frames, this.runtime_steps);
+    }
+
+    /**
+       Mirrors the respective Throwable constructor, for instances which
+       are preallocated and thrown repeatedly. Without a writable stack
+       trace, neither frames nor runtime steps are recorded.
+    */
+    protected ExceptionError (CallContext cc, Throwable cause, Message message, boolean enable_suppression, boolean writable_stack_trace) {
+        super(null, cause, enable_suppression, writable_stack_trace);
+        this.stack_unwritable = (writable_stack_trace == false);
+        this.context = cc;
+        this.message = message;
+        this.help_message_text = null;
+        this.runtime_steps = (writable_stack_trace ? ExceptionRuntimeSteps.capture(cc) : ExceptionRuntimeSteps.EMPTY);
+        ExceptionStatistics.countCreation(this.getClass());
+        ExceptionCreationEvent.emit(this, ExceptionError.class, cc);
+        ExceptionFlightRecorder.record(this, ExceptionError.class, cc, this.stack_captured, this.captured_frames, this.runtime_steps);
+    }
+
+    public synchronized Throwable fillInStackTrace () {
+        ExceptionStackTracePolicy policy = ExceptionStackTracePolicy.get(this.getClass());
+        if (policy.capturesStack() == false) {
+            this.captured_frames = null;
+            this.stack_captured = false;
+            return this;
+        }
+        long start = ExceptionStatistics.start();
+        this.stack_captured = true;
+        if (policy.isInterned()) {
+            this.captured_frames = ExceptionInternedStackFrames.capture(policy.getMaximumDepth());
+        } else if (policy.isBounded()) {
+            this.captured_frames = ExceptionStackFrames.capture(policy.getMaximumDepth());
+        } else {
+            this.captured_frames = null;
+            super.fillInStackTrace();
+        }
+        ExceptionStatistics.STACK_CAPTURE.record(start);
+        return this;
+    }
+
+    protected synchronized void materialiseStackTrace () {
+        ExceptionStackFrames frames = this.captured_frames;
+        if (frames instanceof ExceptionInternedStackFrames) {
+            // the interned frames remain the source of truth, the array is
+            // only lent to Throwable while printing
+            if (this.printing++ == 0) {
+                super.setStackTrace(frames.toStackTrace());
+            }
+        } else if (frames != null) {
+            super.setStackTrace(frames.toStackTrace());
+            this.captured_frames = null;
+        }
+    }
+
+    protected synchronized void releaseStackTrace () {
+        if (this.printing > 0 && --this.printing == 0 && this.captured_frames instanceof ExceptionInternedStackFrames) {
+            super.setStackTrace(NO_FRAMES);
+        }
+    }
+
+    public synchronized Throwable initCause (Throwable cause) {
+        super.initCause(cause);
+        ExceptionStackFrames frames = this.captured_frames;
+        if (frames instanceof ExceptionInternedStackFrames && cause instanceof ExceptionError) {
+            ExceptionStackFrames cause_frames = ((ExceptionError) cause).captured_frames;
+            if (cause_frames instanceof ExceptionInternedStackFrames) {
+                this.captured_frames = ((ExceptionInternedStackFrames) frames).shareWith((ExceptionInternedStackFrames) cause_frames);
+            }
+        }
+        return this;
+    }
+
+    public StackTraceElement[] getStackTrace () {
+        ExceptionStackFrames frames = this.captured_frames;
+        if (frames instanceof ExceptionInternedStackFrames) {
+            return frames.toStackTrace();
+        }
+        this.materialiseStackTrace();
+        return super.getStackTrace();
+    }
+
+    public synchronized void setStackTrace (StackTraceElement[] stack_trace) {
+        super.setStackTrace(stack_trace);
+        if (this.stack_unwritable) { return; }
+        this.captured_frames = null;
+        this.stack_captured = true;
+    }
+
+    public void printStackTrace (java.io.PrintStream stream) {
+        ExceptionError[] materialised = materialiseStackTraces(this);
+        try {
+            super.printStackTrace(stream);
+        } finally {
+            releaseStackTraces(materialised);
+        }
+    }
+
+    public void printStackTrace (java.io.PrintWriter writer) {
+        ExceptionError[] materialised = materialiseStackTraces(this);
+        try {
+            super.printStackTrace(writer);
+        } finally {
+            releaseStackTraces(materialised);
+        }
+    }
+
+    static protected final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+    static protected final int MAXIMUM_PRINTED_CAUSES = 64;
+
+    // java.lang.Throwable prints causes without calling getStackTrace(),
+    // so lazily captured frames along the chain are materialised in
+    // advance; each exception is locked on its own, never two at once
+    static protected ExceptionError[] materialiseStackTraces (Throwable throwable) {
+        ExceptionError[] materialised = new ExceptionError[MAXIMUM_PRINTED_CAUSES];
+        int count = 0;
+        for (int depth = 0; throwable != null && depth < MAXIMUM_PRINTED_CAUSES; throwable = throwable.getCause(), depth++) {
+            if (throwable instanceof ExceptionError) {
+                ExceptionError error = (ExceptionError) throwable;
+                error.materialiseStackTrace();
+                materialised[count++] = error;
+            }
+        }
+        return materialised;
+    }
+
+    static protected void releaseStackTraces (ExceptionError[] materialised) {
+        for (int i = 0; i < materialised.length && materialised[i] != null; i++) {
+            materialised[i].releaseStackTrace();
+        }
+    }
+
+    protected ExceptionMessageMemo getMessageMemo () {
+        ExceptionMessageMemo memo = this.message_memo;
+        if (memo == null) {
+            memo = this.message_memo = new ExceptionMessageMemo();
+        }
+        return memo;
     }
 
     public CallContext getContext () {
@@ -102,8 +268,30 @@ abstract public class ExceptionError extends java.lang.Error implements Dumpable
     }
 
     public String getHelpMessage () {
+        return this.getHelpMessage(this.getContext());
+    }
+
+    public String getHelpMessage (CallContext context) {
         MessageText mt = this.getHelpMessageText();
-        return mt == null ? null : mt.getText(this.getContext());
+        return mt == null ? null : this.getMessageMemo().getHelpMessage(context, mt);
+    }
+
+    public ExceptionClassification getClassification () {
+        int cause_count = ExceptionCauses.getCauseCount(null, this);
+        ExceptionClassification result = this.classification;
+        if (result == null || result.isCurrent(cause_count) == false) {
+            result = this.classification = ExceptionClassification.classifyChain(null, this, cause_count);
+        }
+        return result;
+    }
+
+    public long getFingerprint () {
+        long result = this.fingerprint;
+        if (result == 0) {
+            ExceptionStackFrames frames = this.captured_frames;
+            result = this.fingerprint = (frames != null ? ExceptionFingerprint.compute(this, frames) : ExceptionFingerprint.compute(this, this.getStackTrace()));
+        }
+        return result;
     }
 
     public String getMessage () {
@@ -111,7 +299,31 @@ abstract public class ExceptionError extends java.lang.Error implements Dumpable
     }
 
     public String getMessage (boolean detailed) {
-        return this.message.toString() + (detailed == false ? "" : ((getCause() == null ? "" : ("\n[cause: " + getCause().toString() + "]")) + RuntimeStep.getStackDump(this.getContext())));
+        ExceptionMessageMemo memo = this.getMessageMemo();
+        String result_message = memo.getMessage(detailed);
+        if (result_message == null) {
+            long start = (detailed ? ExceptionStatistics.start() : 0);
+            result_message = memo.setMessage(detailed, this.renderMessage(detailed));
+            ExceptionStatistics.MESSAGE_RENDERING.record(start);
+        }
+        return result_message;
+    }
+
+    protected String renderMessage (boolean detailed) {
+        return (this.message == null ? "" : this.message.toString()) + (detailed == false ? "" : ((getCause() == null ? "" : ("\n[cause: " + getCause().toString() + "]")) + this.getRuntimeStepDump()));
+    }
+
+    /**
+       Returns the runtime steps at construction time, or null if they
+       were not captured.
+    */
+    public ExceptionRuntimeSteps getRuntimeSteps () {
+        return this.runtime_steps;
+    }
+
+    protected String getRuntimeStepDump () {
+        ExceptionRuntimeSteps runtime_steps = this.runtime_steps;
+        return runtime_steps != null ? runtime_steps.getStackDump() : RuntimeStep.getStackDump(this.getContext());
     }
 
     public String toString () {
@@ -123,24 +335,22 @@ abstract public class ExceptionError extends java.lang.Error implements Dumpable
     }
 
     public void dump(CallContext context, DumpNode dump_node) {
-        dump_node.dump(context, "Exception", this.message.toString());
-        Vector<String> rss = RuntimeStep.getStack(this.getContext());
-        if (rss != null) {
-            DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "RuntimeSteps");
-            if (stack_dump_node != null) {
-                for (String rs : rss) {
-                    stack_dump_node.dump(context, rs);
-                }
-                stack_dump_node.close(context);
-            }
+        long start = ExceptionStatistics.start();
+        try {
+            this.dumpDetails(context, dump_node);
+        } finally {
+            ExceptionStatistics.DUMP.record(start);
         }
-        DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "StackTrace");
-        if (stack_dump_node != null) {
-            for (StackTraceElement SE : this.getStackTrace()) {
-                stack_dump_node.dump(context, SE.toString());
-            }
-            stack_dump_node.close(context);
+    }
+
+    protected void dumpDetails(CallContext context, DumpNode dump_node) {
+        dump_node.dump(context, "Exception", this.message == null ? this.getMessage(false) : this.message.toString());
+        if (this.runtime_steps != null) {
+            ExceptionDump.dumpRuntimeSteps(context, dump_node, this.runtime_steps);
+        } else {
+            ExceptionDump.dumpRuntimeSteps(context, dump_node, this.getContext());
         }
+        ExceptionDump.dumpStackTrace(context, dump_node, this, this.captured_frames, this.stack_captured);
         Throwable cause = this.getCause();
         if (cause != null) {
             dump_node.dump(context, "Cause", cause);
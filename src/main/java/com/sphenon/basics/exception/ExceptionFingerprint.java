@@ -0,0 +1,108 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Computes fingerprints of exceptions, which identify occurrences of
+    "the same problem", e.g. as keys of counters or deduplication tables.
+
+    A fingerprint is a 64 bit FNV-1a hash over the name of the exception
+    class and class, method and line of the topmost frames of the stack
+    trace. Frames of the exception class
+    itself, i.e. of its factory methods, are not counted. Since only names
+    and numbers enter the hash, and never formatted messages, it is cheap
+    to compute and stable across restarts of the same software version.
+*/
+public class ExceptionFingerprint {
+
+    static protected final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    static protected final long PRIME        = 0x100000001b3L;
+
+    static protected volatile int frame_count = 5;
+
+    static public void setFrameCount (CallContext context, int count) {
+        frame_count = count;
+    }
+
+    static public int getFrameCount () {
+        return frame_count;
+    }
+
+    static public long compute (Throwable t, StackTraceElement[] stack_trace) {
+        return compute(t.getClass().getName(), stack_trace);
+    }
+
+    static public long compute (String class_name, StackTraceElement[] stack_trace) {
+        long hash = hash(OFFSET_BASIS, class_name);
+        int frames = 0;
+        for (int i = 0; stack_trace != null && i < stack_trace.length && frames < frame_count; i++) {
+            StackTraceElement frame = stack_trace[i];
+            if (frames == 0 && frame.getClassName().equals(class_name)) { continue; }
+            hash = hash(hash(hash(hash, frame.getClassName()), frame.getMethodName()), frame.getLineNumber());
+            frames++;
+        }
+        return hash;
+    }
+
+    static public long compute (Throwable t, ExceptionStackFrames stack_frames) {
+        String class_name = t.getClass().getName();
+        long hash = hash(OFFSET_BASIS, class_name);
+        int frames = 0;
+        for (int i = 0; stack_frames != null && i < stack_frames.size() && frames < frame_count; i++) {
+            if (frames == 0 && stack_frames.getClassName(i).equals(class_name)) { continue; }
+            hash = hash(hash(hash(hash, stack_frames.getClassName(i)), stack_frames.getMethodName(i)), stack_frames.getLineNumber(i));
+            frames++;
+        }
+        return hash;
+    }
+
+    /**
+       Returns the fingerprint of exceptions of this package, or computes
+       it from class and stack trace for any other throwable.
+    */
+    static public long get (Throwable t) {
+        if (t instanceof ExceptionWithFingerprint) {
+            return ((ExceptionWithFingerprint) t).getFingerprint();
+        }
+        return compute(t, t.getStackTrace());
+    }
+
+    static protected long hash (long hash, String string) {
+        if (string == null) {
+            return (hash ^ 0xff) * PRIME;
+        }
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            hash = (hash ^ (c & 0xff)) * PRIME;
+            hash = (hash ^ (c >>> 8)) * PRIME;
+        }
+        // separator, so that adjacent strings cannot be shifted into each other
+        return (hash ^ 0xfe) * PRIME;
+    }
+
+    static protected long hash (long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,413 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Keeps compact records of the most recently created ExceptionErrors,
+    ReturnCodes and TransactionFailures, for inspection after an
+    incident, without keeping the exceptions themselves alive.
+
+    A record contains the time, the creating thread, the exception class,
+    its taxonomy base class, the topmost stack frames and, for
+    ExceptionErrors, the runtime steps. The message itself is neither
+    rendered nor recorded. Frames are taken from those the exception
+    captured bounded or interned; for exceptions which captured their full
+    stack, e.g. under the FULL policy, and for TransactionFailures, the
+    topmost frames below their construction are walked once more, instead
+    of materialising their complete stack trace. Exceptions which do not
+    capture a stack are recorded without frames.
+
+    Recording does not call back into the exception, which is still under
+    construction. The fingerprint of a record is therefore computed from
+    its class name and frames when the record is read; as a rule it equals
+    the fingerprint of the exception, as long as the record is not truncated
+    and keeps at least as many frames as
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionFingerprint">ExceptionFingerprint</link>
+    takes into account.
+
+    Records are kept in a direct buffer of fixed size slots, allocated
+    once, so memory is strictly bounded and no heap is retained. Writers
+    take the next slot by incrementing a sequence and guard it with a per
+    slot seqlock, a version which is odd while the slot is written; a
+    writer which finds its slot still being written by a writer a full
+    round ahead or behind drops its record. Records exceeding a slot are
+    truncated, first frames, then runtime steps. snapshot() copies all
+    stable slots and returns their records ordered by sequence.
+
+    Slot layout: version, sequence, time in millis and thread id as longs,
+    the payload length as int, then the payload: flags, taxonomy, class
+    name, frame count, frames (class, method, file, line), step count,
+    steps, encoded as in
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionCodec">ExceptionCodec</link>.
+*/
+public class ExceptionFlightRecorder {
+
+    static protected final int VERSION_OFFSET     = 0;
+    static protected final int SEQUENCE_OFFSET    = 8;
+    static protected final int TIME_OFFSET        = 16;
+    static protected final int THREAD_OFFSET      = 24;
+    static protected final int LENGTH_OFFSET      = 32;
+    static protected final int PAYLOAD_OFFSET     = 36;
+
+    static protected final int MAXIMUM_COUNT      = 255;
+    static protected final byte FLAG_TRUNCATED    = 1;
+
+    static protected final Class[] TAXONOMIES = { ExceptionError.class, ReturnCode.class, TransactionFailure.class };
+
+    static protected final VarHandle VERSION = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    static protected class DefaultHolder {
+        static protected final ExceptionFlightRecorder instance = new ExceptionFlightRecorder(null, 1024, 512, 8);
+    }
+
+    static protected volatile boolean enabled = true;
+    static protected volatile boolean recording_stackless_return_codes = false;
+    static protected volatile ExceptionFlightRecorder current;
+
+    /**
+       Replaces the recorder exceptions are recorded to; with null, the
+       default recorder is used again.
+    */
+    static public void setCurrent (CallContext context, ExceptionFlightRecorder recorder) {
+        current = recorder;
+    }
+
+    static public ExceptionFlightRecorder getCurrent (CallContext context) {
+        ExceptionFlightRecorder recorder = current;
+        return recorder != null ? recorder : DefaultHolder.instance;
+    }
+
+    static public void setEnabled (CallContext context, boolean new_enabled) {
+        enabled = new_enabled;
+    }
+
+    static public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+       Whether ReturnCodes without a stack trace are recorded; off by
+       default, since they are used as ordinary control flow and are meant
+       to be cheap.
+    */
+    static public void setRecordingStacklessReturnCodes (CallContext context, boolean recording) {
+        recording_stackless_return_codes = recording;
+    }
+
+    static public boolean isRecordingStacklessReturnCodes () {
+        return recording_stackless_return_codes;
+    }
+
+    /**
+       Called from the constructors of the exception base classes; frames
+       are null unless captured bounded or interned, runtime steps are null
+       unless captured. The throwable is not yet completely constructed and
+       is therefore asked for its class only.
+    */
+    static protected void record (Throwable t, Class taxonomy, CallContext context, boolean stack_captured, ExceptionStackFrames frames, ExceptionRuntimeSteps runtime_steps) {
+        if (enabled == false) { return; }
+        ExceptionFlightRecorder recorder = getCurrent(context);
+        try {
+            recorder.write(t, taxonomy, stack_captured, frames, runtime_steps);
+        } catch (Throwable rt) {
+            // recording must never disturb the creation of exceptions
+            recorder.dropped.increment();
+        }
+    }
+
+    protected final ByteBuffer buffer;
+    protected final int slot_size;
+    protected final int slots;
+    protected final int mask;
+    protected final int recorded_frames;
+    protected final AtomicLong next_sequence = new AtomicLong(1);
+    protected final LongAdder dropped = new LongAdder();
+    protected final ThreadLocal<ByteBuffer> scratch;
+
+    /**
+       @param slots           number of records kept, rounded up to the next power of two
+       @param slot_size       bytes per record, rounded up to a multiple of 8
+       @param recorded_frames maximum number of frames per record
+    */
+    public ExceptionFlightRecorder (CallContext context, int slots, int slot_size, int recorded_frames) {
+        this.slots = (slots <= 2 ? 2 : Integer.highestOneBit(slots - 1) << 1);
+        this.mask = this.slots - 1;
+        this.slot_size = (Math.max(slot_size, PAYLOAD_OFFSET + 64) + 7) & ~7;
+        this.recorded_frames = Math.min(recorded_frames, MAXIMUM_COUNT);
+        this.buffer = ByteBuffer.allocateDirect(this.slots * this.slot_size).order(ByteOrder.nativeOrder());
+        final int payload_capacity = this.slot_size - PAYLOAD_OFFSET;
+        this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(payload_capacity));
+    }
+
+    public int getCapacity () {
+        return this.slots;
+    }
+
+    public long getRecordedCount () {
+        return this.next_sequence.get() - 1;
+    }
+
+    public long getDroppedCount () {
+        return this.dropped.sum();
+    }
+
+    protected void write (Throwable t, Class taxonomy, boolean stack_captured, ExceptionStackFrames frames, ExceptionRuntimeSteps runtime_steps) {
+        if (frames == null && stack_captured) {
+            frames = ExceptionStackFrames.captureBelow(t, this.recorded_frames);
+        }
+
+        ByteBuffer payload = this.scratch.get();
+        if (this.encode(payload, t, taxonomy, frames, runtime_steps) == false) {
+            this.dropped.increment();
+            return;
+        }
+
+        long sequence = this.next_sequence.getAndIncrement();
+        int base = (int) (sequence & this.mask) * this.slot_size;
+        long version = (long) VERSION.getAcquire(this.buffer, base + VERSION_OFFSET);
+        if ((version & 1) != 0 || VERSION.compareAndSet(this.buffer, base + VERSION_OFFSET, version, version + 1) == false) {
+            this.dropped.increment();
+            return;
+        }
+        this.buffer.putLong(base + SEQUENCE_OFFSET, sequence);
+        this.buffer.putLong(base + TIME_OFFSET, System.currentTimeMillis());
+        this.buffer.putLong(base + THREAD_OFFSET, Thread.currentThread().getId());
+        this.buffer.putInt(base + LENGTH_OFFSET, payload.position());
+        this.buffer.put(base + PAYLOAD_OFFSET, payload.array(), 0, payload.position());
+        VERSION.setRelease(this.buffer, base + VERSION_OFFSET, version + 2);
+    }
+
+    protected boolean encode (ByteBuffer payload, Throwable t, Class taxonomy, ExceptionStackFrames frames, ExceptionRuntimeSteps runtime_steps) {
+        payload.clear();
+        int capacity = payload.capacity();
+        boolean truncated = false;
+        try {
+            payload.put((byte) 0);
+            payload.put((byte) taxonomyIndex(taxonomy));
+            ExceptionCodec.putText(payload, t.getClass().getName());
+            if (payload.remaining() < 2) { return false; }
+        } catch (BufferOverflowException boe) {
+            return false;
+        }
+
+        // one byte is kept for the step count
+        payload.limit(capacity - 1);
+        int count_position = payload.position();
+        payload.put((byte) 0);
+        int count = 0;
+        int size = Math.min(frames != null ? frames.size() : 0, this.recorded_frames);
+        for (; count < size; count++) {
+            int mark = payload.position();
+            try {
+                ExceptionCodec.putText(payload, frames.getClassName(count));
+                ExceptionCodec.putText(payload, frames.getMethodName(count));
+                ExceptionCodec.putText(payload, frames.getFileName(count));
+                ExceptionCodec.putVarInt(payload, ExceptionCodec.zigZag(frames.getLineNumber(count)));
+            } catch (BufferOverflowException boe) {
+                payload.position(mark);
+                truncated = true;
+                break;
+            }
+        }
+        payload.put(count_position, (byte) count);
+        payload.limit(capacity);
+
+        count_position = payload.position();
+        payload.put((byte) 0);
+        count = 0;
+        size = (truncated || runtime_steps == null ? 0 : Math.min(runtime_steps.size(), MAXIMUM_COUNT));
+        for (; count < size; count++) {
+            int mark = payload.position();
+            try {
+                ExceptionCodec.putText(payload, runtime_steps.get(count));
+            } catch (BufferOverflowException boe) {
+                payload.position(mark);
+                truncated = true;
+                break;
+            }
+        }
+        payload.put(count_position, (byte) count);
+        if (truncated || (runtime_steps != null && runtime_steps.size() > size)) {
+            payload.put(0, FLAG_TRUNCATED);
+        }
+        return true;
+    }
+
+    static protected int taxonomyIndex (Class taxonomy) {
+        for (int i = 0; i < TAXONOMIES.length; i++) {
+            if (TAXONOMIES[i] == taxonomy) { return i; }
+        }
+        return TAXONOMIES.length;
+    }
+
+    static public class Record {
+        protected long sequence;
+        protected long time;
+        protected long thread_id;
+        protected long fingerprint;
+        protected boolean truncated;
+        protected String taxonomy;
+        protected String class_name;
+        protected StackTraceElement[] frames;
+        protected String[] runtime_steps;
+
+        public long getSequence () {
+            return this.sequence;
+        }
+
+        public long getTime () {
+            return this.time;
+        }
+
+        public long getThreadId () {
+            return this.thread_id;
+        }
+
+        /**
+           Computed from class name and recorded frames.
+        */
+        public long getFingerprint () {
+            return this.fingerprint;
+        }
+
+        /**
+           Whether frames or runtime steps were omitted since they did
+           not fit into a slot.
+        */
+        public boolean isTruncated () {
+            return this.truncated;
+        }
+
+        public String getTaxonomy () {
+            return this.taxonomy;
+        }
+
+        public String getClassName () {
+            return this.class_name;
+        }
+
+        public StackTraceElement[] getFrames () {
+            return this.frames;
+        }
+
+        public String[] getRuntimeSteps () {
+            return this.runtime_steps;
+        }
+
+        public String toString () {
+            StringBuilder sb = new StringBuilder();
+            sb.append('#').append(this.sequence)
+              .append(' ').append(java.time.Instant.ofEpochMilli(this.time))
+              .append(" thread ").append(this.thread_id)
+              .append(' ').append(this.class_name)
+              .append(" (").append(this.taxonomy).append(')')
+              .append(" fingerprint ").append(Long.toHexString(this.fingerprint));
+            if (this.truncated) {
+                sb.append(" [truncated]");
+            }
+            for (StackTraceElement frame : this.frames) {
+                sb.append("\n    at ").append(frame);
+            }
+            for (String step : this.runtime_steps) {
+                sb.append("\n    step ").append(step);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+       Returns the records currently kept, oldest first. Slots which are
+       being written while copied are skipped.
+    */
+    public List<Record> snapshot (CallContext context) {
+        List<Record> records = new ArrayList<Record>(this.slots);
+        byte[] copy = new byte[this.slot_size];
+        ByteBuffer slot = ByteBuffer.wrap(copy).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < this.slots; i++) {
+            int base = i * this.slot_size;
+            long version = (long) VERSION.getAcquire(this.buffer, base + VERSION_OFFSET);
+            if (version == 0 || (version & 1) != 0) { continue; }
+            this.buffer.get(base, copy, 0, this.slot_size);
+            VarHandle.acquireFence();
+            if ((long) VERSION.getAcquire(this.buffer, base + VERSION_OFFSET) != version) { continue; }
+            try {
+                records.add(decode(slot));
+            } catch (RuntimeException re) {
+                // cannot happen for stable slots, but a snapshot must not fail
+            }
+        }
+        Collections.sort(records, Comparator.comparingLong(Record::getSequence));
+        return records;
+    }
+
+    static protected Record decode (ByteBuffer slot) {
+        Record record = new Record();
+        record.sequence    = slot.getLong(SEQUENCE_OFFSET);
+        record.time        = slot.getLong(TIME_OFFSET);
+        record.thread_id   = slot.getLong(THREAD_OFFSET);
+        int length         = slot.getInt(LENGTH_OFFSET);
+        ByteBuffer payload = slot.duplicate();
+        payload.position(PAYLOAD_OFFSET).limit(PAYLOAD_OFFSET + length);
+
+        record.truncated = (payload.get() & FLAG_TRUNCATED) != 0;
+        int taxonomy = payload.get();
+        record.taxonomy = (taxonomy >= 0 && taxonomy < TAXONOMIES.length ? TAXONOMIES[taxonomy].getSimpleName() : "?");
+        record.class_name = ExceptionCodec.getText(payload);
+        record.frames = new StackTraceElement[payload.get() & 0xFF];
+        for (int i = 0; i < record.frames.length; i++) {
+            String class_name = ExceptionCodec.getText(payload);
+            String method_name = ExceptionCodec.getText(payload);
+            String file_name = ExceptionCodec.getText(payload);
+            int line_number = ExceptionCodec.unZigZag(ExceptionCodec.getVarInt(payload));
+            record.frames[i] = new StackTraceElement(class_name, method_name, file_name, line_number);
+        }
+        record.runtime_steps = new String[payload.get() & 0xFF];
+        for (int i = 0; i < record.runtime_steps.length; i++) {
+            record.runtime_steps[i] = ExceptionCodec.getText(payload);
+        }
+        record.fingerprint = ExceptionFingerprint.compute(record.class_name, record.frames);
+        return record;
+    }
+
+    /**
+       Writes the records currently kept as text, oldest first.
+    */
+    public void export (CallContext context, Appendable output) throws IOException {
+        List<Record> records = this.snapshot(context);
+        output.append("Exception flight recorder: ").append(String.valueOf(records.size())).append(" records, ")
+              .append(String.valueOf(this.getRecordedCount())).append(" recorded, ")
+              .append(String.valueOf(this.getDroppedCount())).append(" dropped\n");
+        for (Record record : records) {
+            output.append(record.toString()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The global table of stack frames recorded by interned stack trace
+    policies. Each distinct frame is stored once and identified by its
+    index, which remains valid for the lifetime of the JVM.
+
+    The table only grows; since the number of distinct frames is bounded
+    by the code of the application, this is not a leak, but interned
+    policies should not be used for code generated at runtime in
+    unbounded amounts.
+
+    Looking up frames by index does not lock; interning a frame seen
+    before does not lock either.
+*/
+public class ExceptionFrameTable {
+
+    static protected final Map<StackTraceElement,Integer> indices = new ConcurrentHashMap<StackTraceElement,Integer>();
+    static protected volatile StackTraceElement[] frames = new StackTraceElement[1024];
+    static protected int size;
+
+    static public int intern (StackTraceElement frame) {
+        Integer index = indices.get(frame);
+        if (index != null) { return index; }
+        synchronized (ExceptionFrameTable.class) {
+            index = indices.get(frame);
+            if (index != null) { return index; }
+            StackTraceElement[] current = frames;
+            if (size == current.length) {
+                StackTraceElement[] grown = new StackTraceElement[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            current[size] = frame;
+            // publish the array before the index, so that whoever
+            // obtained the index finds the frame
+            frames = current;
+            indices.put(frame, size);
+            return size++;
+        }
+    }
+
+    static public StackTraceElement get (int index) {
+        return frames[index];
+    }
+
+    static public int size () {
+        return indices.size();
+    }
+}
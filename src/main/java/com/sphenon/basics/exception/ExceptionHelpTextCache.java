@@ -0,0 +1,180 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.variatives.tplinst.*;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Help texts resolved by the
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionHelpTextRegistry">ExceptionHelpTextRegistry</link>,
+    keyed by throwable class and the message examined by message rules.
+
+    The cache is set associative: a key is mapped to a set of four
+    entries, and if the set is full, an entry not used recently is evicted,
+    as determined by the CLOCK algorithm: each entry has a reference bit,
+    which is set when it is found, and a hand per set passes over the
+    entries, clearing the bits, until it meets one which is not set.
+    Looking up does neither lock nor allocate, and writes only if the
+    reference bit is not set yet, so frequent hits are read only. Entries
+    are immutable apart from their reference bit and the lazily determined
+    generic text, races on these are benign.
+
+    The generic text quotes the complete message, which may contain more
+    than the key, e.g. causes; it is therefore reused only for the same
+    complete message.
+
+    The cache belongs to one snapshot of registrations and is discarded
+    with it, so any registration invalidates all cached texts.
+*/
+public class ExceptionHelpTextCache {
+
+    static protected final int WAYS = 4;
+
+    static protected class GenericText {
+        protected final String            message;
+        protected final Variative_String_ text;
+
+        protected GenericText (String message, Variative_String_ text) {
+            this.message = message;
+            this.text = text;
+        }
+    }
+
+    static public class Entry {
+        protected final Class             throwable_class;
+        protected final String            rule_message;
+        protected final int               hash;
+        protected final Variative_String_ help_text; // null: no specific text
+        protected final String            matched_by;
+        protected volatile GenericText    generic_text;
+        protected volatile boolean        referenced;
+
+        protected Entry (Class throwable_class, String rule_message, Variative_String_ help_text, String matched_by) {
+            this.throwable_class = throwable_class;
+            this.rule_message = rule_message;
+            this.hash = hash(throwable_class, rule_message);
+            this.help_text = help_text;
+            this.matched_by = matched_by;
+        }
+
+        protected boolean matches (Class throwable_class, String rule_message, int hash) {
+            return    this.hash == hash
+                   && this.throwable_class == throwable_class
+                   && (this.rule_message == null ? rule_message == null : this.rule_message.equals(rule_message));
+        }
+
+        public Variative_String_ getHelpText () {
+            return this.help_text;
+        }
+
+        public String getMatchedBy () {
+            return this.matched_by;
+        }
+
+        /**
+           Returns the generic text previously stored for this message,
+           or null.
+        */
+        public Variative_String_ getGenericText (String message) {
+            GenericText generic_text = this.generic_text;
+            return (generic_text != null && (generic_text.message == null ? message == null : generic_text.message.equals(message))) ? generic_text.text : null;
+        }
+
+        public void setGenericText (String message, Variative_String_ text) {
+            this.generic_text = new GenericText(message, text);
+        }
+    }
+
+    protected final AtomicReferenceArray<Entry> entries;
+    protected final int set_mask;
+    protected final int[] hands; // per set, updated racily, lost updates only blur the order
+
+    /**
+       Capacity is rounded up to a power of two and at least one set.
+    */
+    public ExceptionHelpTextCache (int capacity) {
+        int sets = Math.max(1, (capacity + WAYS - 1) / WAYS);
+        sets = (sets == 1 ? 1 : Integer.highestOneBit(sets - 1) << 1);
+        this.entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+        this.set_mask = sets - 1;
+        this.hands = new int[sets];
+    }
+
+    static protected int hash (Class throwable_class, String rule_message) {
+        int hash = throwable_class.hashCode() * 31 + (rule_message == null ? 0 : rule_message.hashCode());
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+       Returns the entry for the key, or null, without counting.
+    */
+    protected Entry find (Class throwable_class, String rule_message) {
+        int hash = hash(throwable_class, rule_message);
+        int first = (hash & this.set_mask) * WAYS;
+        for (int i = first; i < first + WAYS; i++) {
+            Entry entry = this.entries.get(i);
+            if (entry != null && entry.matches(throwable_class, rule_message, hash)) {
+                if (entry.referenced == false) {
+                    entry.referenced = true;
+                }
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+       Returns the entry for the key, or null, and counts hit or miss.
+    */
+    public Entry get (Class throwable_class, String rule_message) {
+        Entry entry = this.find(throwable_class, rule_message);
+        ExceptionStatistics.countHelpTextCache(entry != null ? ExceptionStatistics.HELP_TEXT_CACHE_HITS : ExceptionStatistics.HELP_TEXT_CACHE_MISSES);
+        return entry;
+    }
+
+    public Entry put (Class throwable_class, String rule_message, Variative_String_ help_text, String matched_by) {
+        Entry entry = new Entry(throwable_class, rule_message, help_text, matched_by);
+        int set = entry.hash & this.set_mask;
+        int first = set * WAYS;
+        for (int i = first; i < first + WAYS; i++) {
+            Entry current = this.entries.get(i);
+            if (current == null || current.matches(throwable_class, rule_message, entry.hash)) {
+                this.entries.set(i, entry);
+                return entry;
+            }
+        }
+        // after one round all bits are cleared, so this ends within two
+        int hand = this.hands[set];
+        int victim = first + (hand & (WAYS - 1));
+        for (int step = 0; step < 2 * WAYS; step++, hand++) {
+            victim = first + (hand & (WAYS - 1));
+            Entry current = this.entries.get(victim);
+            if (current == null || current.referenced == false) { break; }
+            current.referenced = false;
+        }
+        this.hands[set] = (hand + 1) & (WAYS - 1);
+        this.entries.set(victim, entry);
+        ExceptionStatistics.countHelpTextCache(ExceptionStatistics.HELP_TEXT_CACHE_EVICTIONS);
+        return entry;
+    }
+
+    public int getCapacity () {
+        return this.entries.length();
+    }
+}
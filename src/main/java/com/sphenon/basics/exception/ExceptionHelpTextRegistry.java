@@ -23,8 +23,11 @@ import com.sphenon.basics.variatives.tplinst.*;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ExceptionHelpTextRegistry {
 
@@ -40,85 +43,386 @@ public class ExceptionHelpTextRegistry {
         }
     }
 
-    static protected Map<Class,Variative_String_> registry;
+    /* Registrations are rarely modified, but read for each and every
+       exception, possibly concurrently. Therefore they are kept in an
+       immutable snapshot, which is replaced as a whole on modification
+       and read with a single volatile access. Snapshots are modified only
+       before being published.
+    */
+    static protected class Registrations {
+        protected Map<Class,Variative_String_> registry;
+        protected Map<Class,ExceptionTranslator> translator_registry;
+        protected List<RegisteredMatcher> matcher_registry;
+        protected List<ExceptionMessageRule> rule_registry;
+        // matchers and rules to be evaluated per throwable class, filled
+        // on demand, the only parts of a published snapshot which change
+        protected Map<Class,ExceptionMatcher[]> matcher_index;
+        protected Map<Class,ExceptionMessageRuleSet> rule_index;
+        // resolved texts, valid for this snapshot only
+        protected ExceptionHelpTextCache help_text_cache;
 
-    static protected Map<Class,ExceptionTranslator> translator_registry;
+        protected Registrations () {
+            this.registry = Collections.emptyMap();
+            this.translator_registry = Collections.emptyMap();
+            this.matcher_registry = Collections.emptyList();
+            this.rule_registry = Collections.emptyList();
+            this.matcher_index = new ConcurrentHashMap<Class,ExceptionMatcher[]>();
+            this.rule_index = new ConcurrentHashMap<Class,ExceptionMessageRuleSet>();
+            this.help_text_cache = createCache();
+        }
+
+        protected Registrations (Registrations template) {
+            this.registry = template.registry;
+            this.translator_registry = template.translator_registry;
+            this.matcher_registry = template.matcher_registry;
+            this.rule_registry = template.rule_registry;
+            this.matcher_index = template.matcher_index;
+            this.rule_index = template.rule_index;
+            // any modification may change any resolved text
+            this.help_text_cache = createCache();
+        }
+
+        protected ExceptionMatcher[] getCandidateMatchers (Class c) {
+            ExceptionMatcher[] candidates = this.matcher_index.get(c);
+            if (candidates == null) {
+                List<ExceptionMatcher> applicable = new ArrayList<ExceptionMatcher>();
+                for (RegisteredMatcher rm : this.matcher_registry) {
+                    if (rm.appliesTo(c)) {
+                        applicable.add(rm.matcher);
+                    }
+                }
+                candidates = applicable.toArray(new ExceptionMatcher[applicable.size()]);
+                this.matcher_index.put(c, candidates);
+            }
+            return candidates;
+        }
+
+        protected ExceptionMessageRuleSet getRuleSet (Class c) {
+            ExceptionMessageRuleSet rule_set = this.rule_index.get(c);
+            if (rule_set == null) {
+                List<ExceptionMessageRule> applicable = new ArrayList<ExceptionMessageRule>();
+                for (ExceptionMessageRule rule : this.rule_registry) {
+                    if (rule.getThrowableClass().isAssignableFrom(c)) {
+                        applicable.add(rule);
+                    }
+                }
+                rule_set = new ExceptionMessageRuleSet(applicable);
+                this.rule_index.put(c, rule_set);
+            }
+            return rule_set;
+        }
+    }
+
+    static protected class RegisteredMatcher {
+        protected final ExceptionMatcher matcher;
+        protected final Class[] applicable_classes; // null: applies to all classes
+
+        protected RegisteredMatcher (ExceptionMatcher matcher, Class[] applicable_classes) {
+            this.matcher = matcher;
+            this.applicable_classes = applicable_classes;
+        }
 
-    static protected List<ExceptionMatcher> matcher_registry;
+        protected boolean appliesTo (Class c) {
+            if (this.applicable_classes == null) { return true; }
+            for (Class ac : this.applicable_classes) {
+                if (ac.isAssignableFrom(c)) { return true; }
+            }
+            return false;
+        }
+    }
+
+    static protected volatile int cache_capacity = 1024;
+
+    static protected ExceptionHelpTextCache createCache () {
+        return cache_capacity <= 0 ? null : new ExceptionHelpTextCache(cache_capacity);
+    }
+
+    static protected volatile Registrations registrations = new Registrations();
+
+    static protected final Object registration_lock = new Object();
 
     static public void register(CallContext context, Class c, Variative_String_ vs) {
-        if (registry == null) {
-            registry = new HashMap<Class,Variative_String_>();
+        synchronized (registration_lock) {
+            Registrations r = new Registrations(registrations);
+            Map<Class,Variative_String_> registry = new HashMap<Class,Variative_String_>(r.registry);
+            registry.put(c, vs);
+            r.registry = Collections.unmodifiableMap(registry);
+            registrations = r;
         }
-        registry.put(c, vs);
     }
 
     static public void register(CallContext context, Class c, ExceptionTranslator et) {
-        if (translator_registry == null) {
-            translator_registry = new HashMap<Class,ExceptionTranslator>();
+        synchronized (registration_lock) {
+            Registrations r = new Registrations(registrations);
+            Map<Class,ExceptionTranslator> translator_registry = new HashMap<Class,ExceptionTranslator>(r.translator_registry);
+            translator_registry.put(c, et);
+            r.translator_registry = Collections.unmodifiableMap(translator_registry);
+            registrations = r;
         }
-        translator_registry.put(c, et);
     }
 
     static public void register(CallContext context, ExceptionMatcher em) {
-        if (matcher_registry == null) {
-            matcher_registry = new ArrayList<ExceptionMatcher>();
+        RegisteredMatcher rm = new RegisteredMatcher(em, em.getApplicableClasses(context));
+        synchronized (registration_lock) {
+            Registrations r = new Registrations(registrations);
+            List<RegisteredMatcher> matcher_registry = new ArrayList<RegisteredMatcher>(r.matcher_registry);
+            matcher_registry.add(rm);
+            r.matcher_registry = Collections.unmodifiableList(matcher_registry);
+            r.matcher_index = new ConcurrentHashMap<Class,ExceptionMatcher[]>();
+            registrations = r;
+        }
+    }
+
+    static public void register(CallContext context, ExceptionMessageRule rule) {
+        synchronized (registration_lock) {
+            Registrations r = new Registrations(registrations);
+            List<ExceptionMessageRule> rule_registry = new ArrayList<ExceptionMessageRule>(r.rule_registry);
+            rule_registry.add(rule);
+            r.rule_registry = Collections.unmodifiableList(rule_registry);
+            r.rule_index = new ConcurrentHashMap<Class,ExceptionMessageRuleSet>();
+            registrations = r;
         }
-        matcher_registry.add(em);
     }
 
+    /**
+       Sets the number of cached help texts; 0 disables caching. Discards
+       all cached texts.
+    */
+    static public void setCacheCapacity(CallContext context, int capacity) {
+        synchronized (registration_lock) {
+            cache_capacity = capacity;
+            registrations = new Registrations(registrations);
+        }
+    }
+
+    /**
+       The message examined by message rules; for the exceptions of this
+       package it is the plain message, without causes and runtime steps.
+    */
+    static public String getRuleMessage(Throwable t) {
+        if (t instanceof ExceptionError) { return ((ExceptionError) t).getMessage(false); }
+        if (t instanceof ReturnCode) { return ((ReturnCode) t).getMessage(false); }
+        if (t instanceof TransactionFailure) { return ((TransactionFailure) t).getMessage(false); }
+        return t.getMessage();
+    }
+
+    static protected int maximum_cause_depth = 32;
+
+    static public void setMaximumCauseDepth(CallContext context, int depth) {
+        maximum_cause_depth = depth;
+    }
+
+    /* State of one top level resolution, shared with nested get() calls
+       of translators. Remembers the result per examined throwable, which
+       also terminates translators recursing into themselves.
+    */
+    static protected class Resolution {
+        protected Map<Throwable,Object> levels;
+        protected String matched_by; // source of the most recently found text
+    }
+
+    static protected class Level {
+        protected final Variative_String_ help_text;
+        protected final String matched_by;
+
+        protected Level (Variative_String_ help_text, String matched_by) {
+            this.help_text = help_text;
+            this.matched_by = matched_by;
+        }
+    }
+
+    static protected final Object DEFER_TO_CAUSE = new Object();
+    static protected final Object NO_HELP_TEXT   = new Object();
+    static protected final Object IN_PROGRESS    = new Object();
+
+    static protected final ThreadLocal<Resolution> current_resolution = new ThreadLocal<Resolution>();
+
+    /**
+       Returns the help text for the throwable. If the class of the
+       throwable is registered with an ExceptionTranslator_Cause, its
+       causes are examined instead.
+    */
     static public Variative_String_ get(CallContext context, Throwable t) {
-        if (matcher_registry != null) {
-            for (ExceptionMatcher matcher : matcher_registry) {
-                ExceptionMatch match = matcher.matches(context, t);
-                if (match != null) {
-                    return match.getText(context);
+        return resolve(context, t, false);
+    }
+
+    /**
+       Returns the help text of the first throwable along the cause chain,
+       starting with t itself, which provides a specific help text; if
+       none does, a generic text for the innermost examined cause. The
+       chain is examined up to the maximum cause depth and at most once
+       per throwable, even if it is cyclic.
+    */
+    static public Variative_String_ getFromCauseChain(CallContext context, Throwable t) {
+        return resolve(context, t, true);
+    }
+
+    static protected Variative_String_ resolve(CallContext context, Throwable t, boolean whole_chain) {
+        Resolution resolution = current_resolution.get();
+        boolean top_level = (resolution == null);
+        long start = (top_level ? ExceptionStatistics.start() : 0);
+        HelpTextResolutionEvent event = (top_level ? HelpTextResolutionEvent.start() : null);
+        if (top_level) {
+            ExceptionHelpTextCache.Entry entry = getCacheEntry(registrations, t, true);
+            if (entry != null && (entry.getHelpText() != null || whole_chain == false || t.getCause() == null)) {
+                Variative_String_ help_text = entry.getHelpText();
+                if (help_text == null) {
+                    help_text = getGenericText(context, t, entry);
+                }
+                ExceptionStatistics.HELP_TEXT_RESOLUTION.record(start);
+                HelpTextResolutionEvent.finish(event, t, entry.getHelpText() != null ? entry.getMatchedBy() : "generic");
+                return help_text;
+            }
+
+            resolution = new Resolution();
+            current_resolution.set(resolution);
+        }
+        try {
+            Registrations r = registrations;
+            List<Throwable> visited = new ArrayList<Throwable>(4);
+            Throwable last = t;
+            for (Throwable current = t; current != null && visited.size() < maximum_cause_depth; current = current.getCause()) {
+                for (Throwable v : visited) {
+                    if (v == current) { return getGenericText(context, last, resolution); }
+                }
+                visited.add(current);
+                last = current;
+                Object level = resolveLevel(context, r, current, resolution);
+                if (level instanceof Level) {
+                    resolution.matched_by = ((Level) level).matched_by;
+                    return ((Level) level).help_text;
+                }
+                if (level != DEFER_TO_CAUSE && whole_chain == false) { break; }
+            }
+            return getGenericText(context, last, resolution);
+        } finally {
+            if (top_level) {
+                current_resolution.remove();
+                ExceptionStatistics.HELP_TEXT_RESOLUTION.record(start);
+                HelpTextResolutionEvent.finish(event, t, resolution.matched_by);
+            }
+        }
+    }
+
+    static protected Object resolveLevel(CallContext context, Registrations r, Throwable t, Resolution resolution) {
+        if (resolution.levels == null) {
+            resolution.levels = new IdentityHashMap<Throwable,Object>();
+        }
+        Object level = resolution.levels.get(t);
+        if (level == null) {
+            resolution.levels.put(t, IN_PROGRESS);
+            ExceptionHelpTextCache.Entry entry = getCacheEntry(r, t, false);
+            if (entry != null) {
+                level = (entry.getHelpText() != null ? new Level(entry.getHelpText(), entry.getMatchedBy()) : NO_HELP_TEXT);
+            } else {
+                Variative_String_ help_text = getSpecificText(context, r, t, resolution);
+                level = (help_text != null ? new Level(help_text, resolution.matched_by) : r.translator_registry.get(t.getClass()) instanceof ExceptionTranslator_Cause ? DEFER_TO_CAUSE : NO_HELP_TEXT);
+                if (isCacheable(r, t)) {
+                    r.help_text_cache.put(t.getClass(), getRuleMessage(t), help_text, help_text == null ? null : resolution.matched_by);
                 }
             }
+            resolution.levels.put(t, level);
+        }
+        return level;
+    }
+
+    /**
+       Whether the text specific to the throwable depends on nothing but
+       its class and message, i.e. there are no matchers which might
+       examine it, no translator for its class, and it does not carry its
+       own help text.
+    */
+    static protected boolean isCacheable(Registrations r, Throwable t) {
+        if (r.help_text_cache == null) { return false; }
+        Class c = t.getClass();
+        if (r.translator_registry.isEmpty() == false && r.translator_registry.get(c) != null) { return false; }
+        if (r.matcher_registry.isEmpty() == false && r.getCandidateMatchers(c).length != 0) { return false; }
+        if (t instanceof ExceptionError && ((ExceptionError) t).getHelpMessageText() != null) { return false; }
+        if (t instanceof ReturnCode && ((ReturnCode) t).getHelpMessageText() != null) { return false; }
+        return true;
+    }
+
+    static protected ExceptionHelpTextCache.Entry getCacheEntry(Registrations r, Throwable t, boolean count) {
+        if (isCacheable(r, t) == false) {
+            if (count && r.help_text_cache != null) {
+                ExceptionStatistics.countHelpTextCache(ExceptionStatistics.HELP_TEXT_CACHE_BYPASSES);
+            }
+            return null;
+        }
+        return count ? r.help_text_cache.get(t.getClass(), getRuleMessage(t))
+                     : r.help_text_cache.find(t.getClass(), getRuleMessage(t));
+    }
+
+    /**
+       Returns the help text specific to the throwable, if any, and notes
+       which matcher, rule, registration or translator provided it.
+    */
+    static protected Variative_String_ getSpecificText(CallContext context, Registrations r, Throwable t, Resolution resolution) {
+        for (ExceptionMatcher matcher : r.getCandidateMatchers(t.getClass())) {
+            ExceptionMatch match = matcher.matches(context, t);
+            ExceptionStatistics.countMatcher(matcher.getClass(), match != null);
+            if (match != null) {
+                Variative_String_ text = match.getText(context);
+                resolution.matched_by = matcher.getClass().getName();
+                return text;
+            }
         }
 
         Variative_String_ help_text = null;
 
         if (t instanceof ExceptionError) {
             help_text = ((ExceptionError) t).getHelpMessageText();
-            if (help_text != null) { return help_text; }
+            if (help_text != null) { resolution.matched_by = "help message text"; return help_text; }
         }
 
         if (t instanceof ReturnCode) {
             help_text = ((ReturnCode) t).getHelpMessageText();
-            if (help_text != null) { return help_text; }
+            if (help_text != null) { resolution.matched_by = "help message text"; return help_text; }
         }
 
         /* [Issue:TSMBackendJPA.java,ExceptionHelpTextRegistry.java]
-            the exception is registered in JPA, but needs to be checked here,
-            since not all IllegalStateException indicate that same problem;
-            solution: improve registry in ExceptionHelpTextRegistry.java
-            to be able to examine message texts and act correspondingly
+            not all IllegalStateExceptions indicate the same problem, therefore
+            the respective help text is to be registered as an
+            ExceptionMessageRule for "No transaction is currently active"
         */
 
-        if( t instanceof java.lang.IllegalStateException ){
-            String m = t.getMessage();
-            if( m != null && m.equals( "No transaction is currently active" )){
-                if (registry != null) {
-                    help_text = registry.get(t.getClass());
-                    if (help_text != null) { return help_text; }
-                }
-            }
+        ExceptionMessageRuleSet rule_set = r.getRuleSet(t.getClass());
+        if (rule_set.isEmpty() == false) {
+            ExceptionMessageRule rule = rule_set.match(getRuleMessage(t));
+            if (rule != null) { resolution.matched_by = rule.toString(); return rule.getHelpText(); }
         }
 
-        if (registry != null) {
-            help_text = registry.get(t.getClass());
-            if (help_text != null) { return help_text; }
+        help_text = r.registry.get(t.getClass());
+        if (help_text != null) { resolution.matched_by = "registry"; return help_text; }
+
+        ExceptionTranslator et = r.translator_registry.get(t.getClass());
+        if (et != null && et instanceof ExceptionTranslator_Cause == false) {
+            help_text = et.translate(context, t);
+            resolution.matched_by = et.getClass().getName();
         }
+        return help_text;
+    }
 
-        if (translator_registry != null) {
-            ExceptionTranslator et = translator_registry.get(t.getClass());
-            if (et != null) {
-                help_text = et.translate(context, t);
-            }
-            if (help_text != null) { return help_text; }
+    static protected Variative_String_ getGenericText(CallContext context, Throwable t, Resolution resolution) {
+        resolution.matched_by = "generic";
+        return getGenericText(context, t, getCacheEntry(registrations, t, false));
+    }
+
+    static protected Variative_String_ getGenericText(CallContext context, Throwable t, ExceptionHelpTextCache.Entry entry) {
+        if (entry == null) {
+            return createGenericText(context, t);
         }
+        String message = t.getMessage();
+        Variative_String_ help_text = entry.getGenericText(message);
+        if (help_text == null) {
+            help_text = createGenericText(context, t);
+            entry.setGenericText(message, help_text);
+        }
+        return help_text;
+    }
 
-        return MessageText.create(context, "Ein Fehler ist aufgetreten (%(class), %(message))", "class", t.getClass().getName().replaceFirst(".*\\.",""), "message", t.getMessage());
+    static protected Variative_String_ createGenericText(CallContext context, Throwable t) {
+        String class_name = t.getClass().getName();
+        return MessageText.create(context, "Ein Fehler ist aufgetreten (%(class), %(message))", "class", class_name.substring(class_name.lastIndexOf('.') + 1), "message", t.getMessage());
     }
 }
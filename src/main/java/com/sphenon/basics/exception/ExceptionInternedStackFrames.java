@@ -0,0 +1,139 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import java.util.Arrays;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Frames recorded by an interned
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionStackTracePolicy">ExceptionStackTracePolicy</link>,
+    stored as indices into the
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionFrameTable">ExceptionFrameTable</link>.
+
+    The frames are interned when they are captured, so an exception keeps
+    no walked frames, only one int per frame, whether or not its trace is
+    ever read.
+
+    An exception and its cause usually share the outer part of their
+    stacks. Therefore the frames are compared from the outermost one once
+    the cause is known, the common part is dropped from the exception's
+    own indices and referred to within the cause's frames instead, like
+    the "... n more" of printed stack traces. A chain of wrapped exceptions
+    thereby stores each frame about once.
+
+    Instances are immutable; sharing returns a new instance which refers
+    to instances created before. Frames therefore never refer to
+    themselves, even if causes form a cycle, and neither reading nor
+    sharing needs a lock.
+
+    StackTraceElement arrays are built only when explicitly requested and
+    are not retained.
+*/
+public class ExceptionInternedStackFrames extends ExceptionStackFrames {
+
+    // the own indices, followed by the frames of outer, starting at
+    // outer_start
+    protected final int[] indices;
+    protected final ExceptionInternedStackFrames outer;
+    protected final int outer_start;
+    protected final int size;
+
+    protected ExceptionInternedStackFrames (int[] indices, ExceptionInternedStackFrames outer, int outer_start, int size) {
+        this.indices = indices;
+        this.outer = outer;
+        this.outer_start = outer_start;
+        this.size = size;
+    }
+
+    /**
+       Records at most maximum_depth frames of the current stack, or all
+       frames if maximum_depth is negative, omitting the frames of the
+       throwable's own construction.
+    */
+    static public ExceptionInternedStackFrames capture (int maximum_depth) {
+        long limit = (maximum_depth < 0 ? Long.MAX_VALUE : maximum_depth);
+        int[] indices = walker.walk(s -> s.dropWhile(ExceptionStackFrames::isConstructionFrame).limit(limit).mapToInt(frame -> ExceptionFrameTable.intern(frame.toStackTraceElement())).toArray());
+        return new ExceptionInternedStackFrames(indices, null, 0, indices.length);
+    }
+
+    /**
+       Returns frames equal to these, sharing their outer part with the
+       given frames of the cause.
+    */
+    public ExceptionInternedStackFrames shareWith (ExceptionInternedStackFrames cause_frames) {
+        if (cause_frames == null || cause_frames == this || this.outer != null) { return this; }
+        int own = this.indices.length;
+        int maximum = Math.min(own, cause_frames.size);
+        int common = 0;
+        while (common < maximum && this.indices[own - 1 - common] == cause_frames.getIndex(cause_frames.size - 1 - common)) {
+            common++;
+        }
+        if (common == 0) { return this; }
+        return new ExceptionInternedStackFrames(Arrays.copyOf(this.indices, own - common), cause_frames, cause_frames.size - common, this.size);
+    }
+
+    public int getIndex (int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("frame " + index + " of " + this.size);
+        }
+        ExceptionInternedStackFrames frames = this;
+        while (index >= frames.indices.length) {
+            index = index - frames.indices.length + frames.outer_start;
+            frames = frames.outer;
+        }
+        return frames.indices[index];
+    }
+
+    public int size () {
+        return this.size;
+    }
+
+    public String getClassName (int index) {
+        return ExceptionFrameTable.get(this.getIndex(index)).getClassName();
+    }
+
+    public String getMethodName (int index) {
+        return ExceptionFrameTable.get(this.getIndex(index)).getMethodName();
+    }
+
+    public int getLineNumber (int index) {
+        return ExceptionFrameTable.get(this.getIndex(index)).getLineNumber();
+    }
+
+    public String getFileName (int index) {
+        return ExceptionFrameTable.get(this.getIndex(index)).getFileName();
+    }
+
+    public StackTraceElement getStackTraceElement (int index) {
+        return ExceptionFrameTable.get(this.getIndex(index));
+    }
+
+    public StackTraceElement[] toStackTrace () {
+        StackTraceElement[] stack_trace = new StackTraceElement[this.size];
+        int position = 0;
+        ExceptionInternedStackFrames frames = this;
+        int start = 0;
+        while (true) {
+            for (int i = start; i < frames.indices.length && position < this.size; i++) {
+                stack_trace[position++] = ExceptionFrameTable.get(frames.indices[i]);
+            }
+            if (position == this.size) { return stack_trace; }
+            start = Math.max(start, frames.indices.length) - frames.indices.length + frames.outer_start;
+            frames = frames.outer;
+        }
+    }
+}
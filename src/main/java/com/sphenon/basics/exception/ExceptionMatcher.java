@@ -20,4 +20,14 @@ import com.sphenon.basics.exception.*;
 
 public interface ExceptionMatcher {
     public ExceptionMatch matches(CallContext context, Throwable throwable);
+
+    /**
+       Returns the classes of throwables this matcher applies to, including
+       their subclasses, or null if it may match throwables of any class.
+       The result is queried once on registration, the registry then asks
+       the matcher only about throwables of these classes.
+    */
+    default public Class[] getApplicableClasses(CallContext context) {
+        return null;
+    }
 }
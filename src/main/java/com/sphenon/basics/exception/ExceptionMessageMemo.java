@@ -0,0 +1,96 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+import java.lang.ref.WeakReference;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Remembers the rendered messages of an exception, so that repeated calls
+    of getMessage(), toString() or getHelpMessage() do not render them
+    again.
+
+    Rendered texts are published via volatile fields; concurrent first
+    calls may render the same text twice, but never observe a partially
+    built one. Help texts depend on the locale, which is determined by the
+    context they are rendered with, therefore they are remembered per
+    context. Only a few contexts are kept, and only weakly referenced.
+*/
+public class ExceptionMessageMemo {
+
+    static protected final int MAXIMUM_HELP_MESSAGES = 4;
+
+    static protected class HelpMessage {
+        protected final WeakReference<CallContext> context;
+        protected final MessageText help_message_text;
+        protected final String text;
+
+        protected HelpMessage (CallContext context, MessageText help_message_text, String text) {
+            this.context = new WeakReference<CallContext>(context);
+            this.help_message_text = help_message_text;
+            this.text = text;
+        }
+    }
+
+    protected volatile String detailed_message;
+    protected volatile String message;
+    protected volatile HelpMessage[] help_messages;
+
+    public String getMessage (boolean detailed) {
+        return detailed ? this.detailed_message : this.message;
+    }
+
+    public String setMessage (boolean detailed, String text) {
+        if (detailed) {
+            this.detailed_message = text;
+        } else {
+            this.message = text;
+        }
+        return text;
+    }
+
+    public void invalidateMessages () {
+        this.detailed_message = null;
+        this.message = null;
+    }
+
+    public String getHelpMessage (CallContext context, MessageText help_message_text) {
+        HelpMessage[] hms = this.help_messages;
+        if (hms != null) {
+            for (HelpMessage hm : hms) {
+                if (hm.help_message_text == help_message_text && hm.context.get() == context) {
+                    return hm.text;
+                }
+            }
+        }
+        String text = help_message_text.getText(context);
+        HelpMessage hm = new HelpMessage(context, help_message_text, text);
+        if (hms == null) {
+            this.help_messages = new HelpMessage[] { hm };
+        } else {
+            int length = hms.length < MAXIMUM_HELP_MESSAGES ? hms.length + 1 : MAXIMUM_HELP_MESSAGES;
+            HelpMessage[] new_hms = new HelpMessage[length];
+            new_hms[0] = hm;
+            System.arraycopy(hms, 0, new_hms, 1, length - 1);
+            this.help_messages = new_hms;
+        }
+        return text;
+    }
+}
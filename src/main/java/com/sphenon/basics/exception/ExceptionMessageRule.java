@@ -0,0 +1,96 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.variatives.tplinst.*;
+
+import java.util.regex.Pattern;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Declares a help text for throwables of a given class (including
+    subclasses) whose message matches a pattern. Patterns are either
+    literals, which match the message exactly, as a prefix or anywhere
+    within it, or regular expressions, which must match the complete
+    message.
+
+    Rules are registered at the
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionHelpTextRegistry">ExceptionHelpTextRegistry</link>,
+    which compiles all rules applicable to a class into one
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionMessageRuleSet">ExceptionMessageRuleSet</link>.
+    If several rules match, the one registered first wins.
+
+    Regular expressions are combined into a single one, therefore they must
+    not refer to their own groups by number.
+*/
+public class ExceptionMessageRule {
+
+    static public enum Kind { EXACT, PREFIX, CONTAINS, REGEX };
+
+    protected Class throwable_class;
+    protected Kind kind;
+    protected String pattern;
+    protected Variative_String_ help_text;
+
+    protected ExceptionMessageRule (CallContext context, Class throwable_class, Kind kind, String pattern, Variative_String_ help_text) {
+        this.throwable_class = throwable_class;
+        this.kind = kind;
+        this.pattern = pattern;
+        this.help_text = help_text;
+        if (kind == Kind.REGEX) {
+            // fail on registration, not on first use
+            Pattern.compile(pattern);
+        }
+    }
+
+    static public ExceptionMessageRule createExact(CallContext context, Class throwable_class, String message, Variative_String_ help_text) {
+        return new ExceptionMessageRule(context, throwable_class, Kind.EXACT, message, help_text);
+    }
+
+    static public ExceptionMessageRule createPrefix(CallContext context, Class throwable_class, String prefix, Variative_String_ help_text) {
+        return new ExceptionMessageRule(context, throwable_class, Kind.PREFIX, prefix, help_text);
+    }
+
+    static public ExceptionMessageRule createContains(CallContext context, Class throwable_class, String text, Variative_String_ help_text) {
+        return new ExceptionMessageRule(context, throwable_class, Kind.CONTAINS, text, help_text);
+    }
+
+    static public ExceptionMessageRule createRegex(CallContext context, Class throwable_class, String regex, Variative_String_ help_text) {
+        return new ExceptionMessageRule(context, throwable_class, Kind.REGEX, regex, help_text);
+    }
+
+    public Class getThrowableClass () {
+        return this.throwable_class;
+    }
+
+    public Kind getKind () {
+        return this.kind;
+    }
+
+    public String getPattern () {
+        return this.pattern;
+    }
+
+    public Variative_String_ getHelpText () {
+        return this.help_text;
+    }
+
+    public String toString () {
+        return this.kind + "(" + this.throwable_class.getName() + ", '" + this.pattern + "')";
+    }
+}
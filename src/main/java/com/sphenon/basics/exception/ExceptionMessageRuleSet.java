@@ -0,0 +1,220 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    A list of
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionMessageRule">ExceptionMessageRules</link>,
+    compiled for matching a message in one pass.
+
+    All literal patterns are combined into an Aho-Corasick automaton, which
+    finds every occurrence of every literal while scanning the message
+    once; exact and prefix rules are satisfied by occurrences at the
+    respective positions. All regular expressions are combined into one
+    alternation of named groups, which is evaluated only if it might
+    yield a rule preceding the best literal match.
+
+    Instances are immutable and may be used concurrently.
+*/
+public class ExceptionMessageRuleSet {
+
+    protected ExceptionMessageRule[] rules;
+
+    // automaton, per state: sorted transition labels and targets,
+    // failure state, and the rules whose literal ends in this state
+    protected char[][]  labels;
+    protected int[][]   targets;
+    protected int[]     failures;
+    protected int[][]   outputs;
+    protected boolean   has_literals;
+
+    protected Pattern regex;
+    protected int[]   regex_rules; // rule indices of the groups in regex, ascending
+
+    public ExceptionMessageRuleSet (List<ExceptionMessageRule> rules) {
+        this.rules = rules.toArray(new ExceptionMessageRule[rules.size()]);
+        this.compileLiterals();
+        this.compileRegularExpressions();
+    }
+
+    public boolean isEmpty () {
+        return this.rules.length == 0;
+    }
+
+    /**
+       Returns the first rule which matches the message, or null.
+    */
+    public ExceptionMessageRule match (String message) {
+        if (message == null || this.rules.length == 0) { return null; }
+
+        int best = this.rules.length;
+
+        if (this.has_literals) {
+            int length = message.length();
+            int state = 0;
+            for (int position = 0; position < length && best > 0; position++) {
+                state = this.next(state, message.charAt(position));
+                for (int rule_index : this.outputs[state]) {
+                    if (rule_index >= best) { break; }
+                    ExceptionMessageRule rule = this.rules[rule_index];
+                    int start = position + 1 - rule.pattern.length();
+                    switch (rule.kind) {
+                        case EXACT    : if (start == 0 && position == length - 1) { best = rule_index; } break;
+                        case PREFIX   : if (start == 0) { best = rule_index; } break;
+                        case CONTAINS : best = rule_index; break;
+                    }
+                }
+            }
+            // empty literals match without consuming any characters
+            for (int rule_index : this.outputs[0]) {
+                if (rule_index >= best) { break; }
+                ExceptionMessageRule rule = this.rules[rule_index];
+                if (rule.kind != ExceptionMessageRule.Kind.EXACT || length == 0) { best = rule_index; }
+            }
+        }
+
+        if (this.regex != null && this.regex_rules[0] < best) {
+            Matcher matcher = this.regex.matcher(message);
+            if (matcher.matches()) {
+                for (int rule_index : this.regex_rules) {
+                    if (rule_index >= best) { break; }
+                    if (matcher.start(groupName(rule_index)) != -1) {
+                        best = rule_index;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return best < this.rules.length ? this.rules[best] : null;
+    }
+
+    protected int next (int state, char c) {
+        while (true) {
+            int index = Arrays.binarySearch(this.labels[state], c);
+            if (index >= 0) { return this.targets[state][index]; }
+            if (state == 0) { return 0; }
+            state = this.failures[state];
+        }
+    }
+
+    static protected String groupName (int rule_index) {
+        return "rule" + rule_index;
+    }
+
+    protected void compileLiterals () {
+        List<TreeMap<Character,Integer>> transitions = new ArrayList<TreeMap<Character,Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        transitions.add(new TreeMap<Character,Integer>());
+        ends.add(new ArrayList<Integer>());
+
+        for (int rule_index = 0; rule_index < this.rules.length; rule_index++) {
+            ExceptionMessageRule rule = this.rules[rule_index];
+            if (rule.kind == ExceptionMessageRule.Kind.REGEX) { continue; }
+            this.has_literals = true;
+            int state = 0;
+            for (int i = 0; i < rule.pattern.length(); i++) {
+                Character c = rule.pattern.charAt(i);
+                Integer target = transitions.get(state).get(c);
+                if (target == null) {
+                    target = transitions.size();
+                    transitions.add(new TreeMap<Character,Integer>());
+                    ends.add(new ArrayList<Integer>());
+                    transitions.get(state).put(c, target);
+                }
+                state = target;
+            }
+            ends.get(state).add(rule_index);
+        }
+
+        int states = transitions.size();
+        this.labels   = new char[states][];
+        this.targets  = new int[states][];
+        this.failures = new int[states];
+        this.outputs  = new int[states][];
+
+        for (int state = 0; state < states; state++) {
+            TreeMap<Character,Integer> t = transitions.get(state);
+            this.labels[state]  = new char[t.size()];
+            this.targets[state] = new int[t.size()];
+            int i = 0;
+            for (Map.Entry<Character,Integer> entry : t.entrySet()) {
+                this.labels[state][i]  = entry.getKey();
+                this.targets[state][i] = entry.getValue();
+                i++;
+            }
+        }
+
+        // breadth first, so that failure states are complete when used
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        this.outputs[0] = toSortedArray(ends.get(0), null);
+        for (int target : this.targets[0]) {
+            this.failures[target] = 0;
+            queue[tail++] = target;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            this.outputs[state] = toSortedArray(ends.get(state), state == 0 ? null : this.outputs[this.failures[state]]);
+            for (int i = 0; i < this.labels[state].length; i++) {
+                int target = this.targets[state][i];
+                this.failures[target] = this.next(this.failures[state], this.labels[state][i]);
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    static protected int[] toSortedArray (List<Integer> own, int[] inherited) {
+        int[] result = new int[own.size() + (inherited == null ? 0 : inherited.length)];
+        int i = 0;
+        for (Integer rule_index : own) { result[i++] = rule_index; }
+        if (inherited != null) {
+            System.arraycopy(inherited, 0, result, i, inherited.length);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    protected void compileRegularExpressions () {
+        StringBuilder combined = null;
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int rule_index = 0; rule_index < this.rules.length; rule_index++) {
+            ExceptionMessageRule rule = this.rules[rule_index];
+            if (rule.kind != ExceptionMessageRule.Kind.REGEX) { continue; }
+            if (combined == null) {
+                combined = new StringBuilder();
+            } else {
+                combined.append('|');
+            }
+            combined.append("(?<").append(groupName(rule_index)).append('>').append(rule.pattern).append(')');
+            indices.add(rule_index);
+        }
+        if (combined != null) {
+            this.regex = Pattern.compile(combined.toString());
+            this.regex_rules = toSortedArray(indices, null);
+        }
+    }
+}
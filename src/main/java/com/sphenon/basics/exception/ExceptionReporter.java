@@ -0,0 +1,372 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Reports exceptions rate-limited and aggregated by exception class and
+    throw site.
+
+    The first occurrence per class and site is reported in full, further
+    occurrences are counted and reported as periodic summaries. If a class
+    and site did not recur within two summary intervals, the next occurrence
+    is reported in full again.
+
+    The reporting thread determines the throw site and counts the
+    occurrence; only first occurrences are handed over to a bounded buffer,
+    further ones are not retained at all. Rendering and summarising happens
+    in a background thread, which sleeps until something is handed over or
+    the next summary is due. If the buffer is full, occurrences are dropped
+    and only counted; the number of dropped occurrences is part of the
+    summaries.
+
+    Diagnostics about questionable use of exceptions, as reported via
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionDiagnosticSink_Async">ExceptionDiagnosticSink_Async</link>,
+    share the buffer and the background thread. Their fingerprints are
+    computed on the reporting thread as well. Diagnostics with the same
+    reason about exceptions with the same fingerprint are written once;
+    the most recent of them are remembered up to the maximum number of
+    sites, and suppressed duplicates are counted.
+
+    On close, the background thread processes what is left in the buffer
+    and writes a final summary.
+*/
+public class ExceptionReporter {
+
+    static public interface Sink {
+        public void emit(String text);
+    }
+
+    static public class Sink_SystemErr implements Sink {
+        public void emit(String text) {
+            System.err.println(text);
+        }
+    }
+
+    static protected class DefaultHolder {
+        static protected final ExceptionReporter instance = new ExceptionReporter(null, new Sink_SystemErr(), 60000, 4096, 10000);
+    }
+
+    static public ExceptionReporter getDefault (CallContext context) {
+        return DefaultHolder.instance;
+    }
+
+    static protected class Site {
+        protected final Class exception_class;
+        protected final String class_name;
+        protected final String method_name;
+        protected final int line_number;
+
+        protected Site (Class exception_class, String class_name, String method_name, int line_number) {
+            this.exception_class = exception_class;
+            this.class_name = class_name;
+            this.method_name = method_name;
+            this.line_number = line_number;
+        }
+
+        public boolean equals (Object object) {
+            if (object instanceof Site == false) { return false; }
+            Site site = (Site) object;
+            return    this.exception_class == site.exception_class
+                   && this.line_number == site.line_number
+                   && (this.class_name == null ? site.class_name == null : this.class_name.equals(site.class_name))
+                   && (this.method_name == null ? site.method_name == null : this.method_name.equals(site.method_name));
+        }
+
+        public int hashCode () {
+            return ((this.exception_class.hashCode() * 31 + (this.class_name == null ? 0 : this.class_name.hashCode())) * 31 + (this.method_name == null ? 0 : this.method_name.hashCode())) * 31 + this.line_number;
+        }
+
+        public String toString () {
+            return this.exception_class.getName() + (this.class_name == null ? "" : (" at " + this.class_name + "." + this.method_name + (this.line_number < 0 ? "" : (":" + this.line_number))));
+        }
+    }
+
+    static protected class Diagnostic {
+        protected final String reason;
+        protected final long fingerprint;
+        protected final Throwable subject; // for rendering only
+
+        protected Diagnostic (String reason, long fingerprint, Throwable subject) {
+            this.reason = reason;
+            this.fingerprint = fingerprint;
+            this.subject = subject;
+        }
+    }
+
+    static protected class DiagnosticKey {
+        protected final String reason;
+        protected final long fingerprint;
+
+        protected DiagnosticKey (String reason, long fingerprint) {
+            this.reason = reason;
+            this.fingerprint = fingerprint;
+        }
+
+        public boolean equals (Object object) {
+            if (object instanceof DiagnosticKey == false) { return false; }
+            DiagnosticKey key = (DiagnosticKey) object;
+            return this.fingerprint == key.fingerprint && this.reason.equals(key.reason);
+        }
+
+        public int hashCode () {
+            return this.reason.hashCode() * 31 + Long.hashCode(this.fingerprint);
+        }
+    }
+
+    static protected class FirstOccurrence {
+        protected final Site site;
+        protected final Throwable t;
+
+        protected FirstOccurrence (Site site, Throwable t) {
+            this.site = site;
+            this.t = t;
+        }
+    }
+
+    static protected class Occurrences {
+        protected final LongAdder count = new LongAdder(); // since last summary
+        // consumer thread only
+        protected long total = 1;
+        protected int  quiet_intervals;
+    }
+
+    protected Sink sink;
+    protected long summary_interval_nanos;
+    protected int maximum_sites;
+    protected ExceptionRingBuffer<Object> buffer;
+    protected long reported_drops;
+    protected LongAdder duplicate_diagnostics = new LongAdder();
+    protected Map<Site,Occurrences> sites;
+    protected LongAdder overflow_count = new LongAdder();
+
+    // consumer thread only
+    protected Map<DiagnosticKey,Boolean> recent_diagnostics;
+
+    protected volatile boolean closed;
+    protected volatile boolean waiting;
+    protected Thread thread;
+
+    public ExceptionReporter (CallContext context, Sink sink, long summary_interval_millis, int buffer_capacity, final int maximum_sites) {
+        this.sink = sink;
+        this.summary_interval_nanos = TimeUnit.MILLISECONDS.toNanos(summary_interval_millis);
+        this.maximum_sites = maximum_sites;
+        this.buffer = new ExceptionRingBuffer<Object>(buffer_capacity);
+        this.sites = new ConcurrentHashMap<Site,Occurrences>();
+        this.recent_diagnostics = new LinkedHashMap<DiagnosticKey,Boolean>(16, 0.75f, true) {
+            protected boolean removeEldestEntry (Map.Entry<DiagnosticKey,Boolean> eldest) {
+                return this.size() > maximum_sites;
+            }
+        };
+        this.thread = new Thread(this::run, "ExceptionReporter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+       Reports an occurrence; never blocks and does not render anything.
+    */
+    public void report (CallContext context, Throwable t) {
+        if (t == null || this.closed) { return; }
+        Site site = getSite(t);
+        Occurrences occurrences = this.sites.get(site);
+        if (occurrences == null) {
+            if (this.sites.size() >= this.maximum_sites) {
+                this.overflow_count.increment();
+                return;
+            }
+            occurrences = this.sites.putIfAbsent(site, new Occurrences());
+            if (occurrences == null) {
+                this.offer(new FirstOccurrence(site, t));
+                return;
+            }
+        }
+        occurrences.count.increment();
+    }
+
+    /**
+       Reports that the subject exception is involved in the problem
+       described by reason; never blocks and does not render anything.
+    */
+    public void reportDiagnostic (CallContext context, String reason, Throwable subject) {
+        if (subject != null && this.closed == false) {
+            this.offer(new Diagnostic(reason, ExceptionFingerprint.get(subject), subject));
+        }
+    }
+
+    protected void offer (Object item) {
+        if (this.buffer.offer(item) && this.waiting) {
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    /**
+       Returns the number of occurrences and diagnostics dropped because
+       the buffer was full.
+    */
+    public long getDroppedCount () {
+        return this.buffer.getDroppedCount();
+    }
+
+    public long getDuplicateDiagnosticCount () {
+        return this.duplicate_diagnostics.sum();
+    }
+
+    public void close (CallContext context) {
+        this.closed = true;
+        LockSupport.unpark(this.thread);
+    }
+
+    protected void run () {
+        long next_summary = System.nanoTime() + this.summary_interval_nanos;
+        while (this.closed == false) {
+            this.drain();
+            long remaining = next_summary - System.nanoTime();
+            if (remaining <= 0) {
+                this.summarise();
+                next_summary = System.nanoTime() + this.summary_interval_nanos;
+                continue;
+            }
+            // announce waiting before checking the buffer again, so that an
+            // item offered meanwhile either is seen here or unparks us
+            this.waiting = true;
+            if (this.buffer.isEmpty() && this.closed == false) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            this.waiting = false;
+        }
+        this.drain();
+        this.summarise();
+    }
+
+    protected void drain () {
+        Object item;
+        while ((item = this.buffer.poll()) != null) {
+            if (item instanceof Diagnostic) {
+                this.processDiagnostic((Diagnostic) item);
+            } else {
+                FirstOccurrence first = (FirstOccurrence) item;
+                this.emit("First occurrence of " + first.site + ":\n" + render(first.t));
+            }
+        }
+    }
+
+    protected void processDiagnostic (Diagnostic diagnostic) {
+        try {
+            DiagnosticKey key = new DiagnosticKey(diagnostic.reason, diagnostic.fingerprint);
+            if (this.recent_diagnostics.put(key, Boolean.TRUE) != null) {
+                this.duplicate_diagnostics.increment();
+                return;
+            }
+            this.emit(render(diagnostic));
+        } catch (Throwable t) {
+            // a diagnostic which cannot be processed is not worth more trouble
+        }
+    }
+
+    protected void summarise () {
+        Iterator<Map.Entry<Site,Occurrences>> iterator = this.sites.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Site,Occurrences> entry = iterator.next();
+            Occurrences occurrences = entry.getValue();
+            long count = occurrences.count.sumThenReset();
+            if (count == 0) {
+                // occurrences counted while removing are lost, and the next
+                // one is reported in full again
+                if (++occurrences.quiet_intervals > 1) {
+                    iterator.remove();
+                }
+                continue;
+            }
+            occurrences.quiet_intervals = 0;
+            occurrences.total += count;
+            this.emit(count + " further occurrences of " + entry.getKey() + " (" + occurrences.total + " in total)");
+        }
+        long drops = this.buffer.getDroppedCount();
+        long overflow = this.overflow_count.sumThenReset();
+        if (drops != this.reported_drops || overflow != 0) {
+            this.emit((drops - this.reported_drops) + " occurrences or diagnostics dropped due to overload, " + overflow + " due to too many distinct sites");
+            this.reported_drops = drops;
+        }
+    }
+
+    protected void emit (String text) {
+        try {
+            this.sink.emit(text);
+        } catch (Throwable t) {
+            // reporting must never take down the reporter
+        }
+    }
+
+    static protected String render (Throwable t) {
+        StringWriter sw = new StringWriter();
+        try {
+            t.printStackTrace(new PrintWriter(sw));
+        } catch (Throwable rt) {
+            sw.write(t.getClass().getName() + " (not renderable: " + rt + ")");
+        }
+        return sw.toString();
+    }
+
+    static protected String render (Diagnostic diagnostic) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception ").append(diagnostic.subject).append(' ').append(diagnostic.reason);
+        Throwable[] causes = ExceptionCauses.getCauses(null, diagnostic.subject);
+        if (causes != null) {
+            sb.append(':');
+            for (Throwable cause : causes) {
+                sb.append("\nCause: ").append(cause);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+       To be called on the reporting thread, which sees the frames captured
+       by the exception; the background thread gets the site only.
+    */
+    static protected Site getSite (Throwable t) {
+        String exception_class_name = t.getClass().getName();
+        ExceptionStackFrames frames = (t instanceof ExceptionError ? ((ExceptionError) t).captured_frames : null);
+        if (frames != null) {
+            for (int i = 0; i < frames.size(); i++) {
+                if (frames.getClassName(i).equals(exception_class_name) == false) {
+                    return new Site(t.getClass(), frames.getClassName(i), frames.getMethodName(i), frames.getLineNumber(i));
+                }
+            }
+        } else {
+            for (StackTraceElement frame : t.getStackTrace()) {
+                if (frame.getClassName().equals(exception_class_name) == false) {
+                    return new Site(t.getClass(), frame.getClassName(), frame.getMethodName(), frame.getLineNumber());
+                }
+            }
+        }
+        return new Site(t.getClass(), null, null, -1);
+    }
+}
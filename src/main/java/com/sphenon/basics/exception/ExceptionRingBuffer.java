@@ -0,0 +1,108 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    A bounded queue for handing over items from arbitrary threads to a
+    background thread, without locking and without ever blocking the
+    offering thread. If the buffer is full, the item is dropped and
+    counted.
+
+    Each slot carries a sequence number, which tells producers and the
+    consumer whether the slot is free for the current round or filled.
+*/
+public class ExceptionRingBuffer<E> {
+
+    protected final int mask;
+    protected final AtomicReferenceArray<E> items;
+    protected final AtomicLongArray sequences;
+    protected final AtomicLong tail = new AtomicLong();
+    protected long head; // consumer only
+    protected final LongAdder dropped = new LongAdder();
+
+    /**
+       Capacity is rounded up to the next power of two.
+    */
+    public ExceptionRingBuffer (int capacity) {
+        int size = (capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+       Returns false and drops the item if the buffer is full.
+    */
+    public boolean offer (E item) {
+        while (true) {
+            long position = this.tail.get();
+            int index = (int) (position & this.mask);
+            long difference = this.sequences.get(index) - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.items.lazySet(index, item);
+                    // a full fence, ordering this before a following check
+                    // whether the consumer is waiting
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                this.dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    /**
+       Returns the next item or null; to be called from one thread only.
+    */
+    public E poll () {
+        int index = (int) (this.head & this.mask);
+        if (this.sequences.get(index) != this.head + 1) {
+            return null;
+        }
+        E item = this.items.get(index);
+        this.items.lazySet(index, null);
+        this.sequences.lazySet(index, this.head + this.mask + 1);
+        this.head++;
+        return item;
+    }
+
+    /**
+       To be called from the consuming thread only.
+    */
+    public boolean isEmpty () {
+        return this.sequences.get((int) (this.head & this.mask)) != this.head + 1;
+    }
+
+    public int getCapacity () {
+        return this.mask + 1;
+    }
+
+    public long getDroppedCount () {
+        return this.dropped.sum();
+    }
+}
@@ -0,0 +1,113 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.debug.*;
+
+import java.util.Vector;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    An immutable snapshot of the runtime step stack of a context, taken
+    when an exception is created, so that messages and dumps show the
+    steps during which the problem occurred, not those the context is in
+    when the exception is finally reported.
+
+    Each thread remembers its most recent snapshot; as long as the stack
+    does not change, i.e. for all exceptions created within the same
+    step, that same snapshot object is reused. The step descriptions are
+    shared with the stack itself and joined into a dump only on demand.
+
+    RuntimeStep offers the stack only as a copy, via getStack(), so taking
+    a snapshot costs that copy and a comparison with the last snapshot;
+    the array of steps itself is allocated only when the stack changed.
+
+    Detailed messages list the captured steps one per line, which is not
+    necessarily the format of RuntimeStep.getStackDump(); with capturing
+    disabled, the latter is used, as before.
+*/
+public class ExceptionRuntimeSteps {
+
+    static public final ExceptionRuntimeSteps EMPTY = new ExceptionRuntimeSteps(new String[0]);
+
+    static protected volatile boolean capture_enabled = true;
+
+    static protected final ThreadLocal<ExceptionRuntimeSteps> last_snapshot = new ThreadLocal<ExceptionRuntimeSteps>();
+
+    /**
+       If disabled, exceptions read the runtime steps of their context
+       when needed and render them via RuntimeStep.getStackDump(), as they
+       did before snapshots were introduced.
+    */
+    static public void setCaptureEnabled (CallContext context, boolean enabled) {
+        capture_enabled = enabled;
+    }
+
+    /**
+       Returns a snapshot of the runtime steps of the context, or null if
+       capturing is disabled.
+    */
+    static public ExceptionRuntimeSteps capture (CallContext context) {
+        if (capture_enabled == false) { return null; }
+        Vector<String> stack = RuntimeStep.getStack(context);
+        if (stack == null || stack.isEmpty()) { return EMPTY; }
+        ExceptionRuntimeSteps last = last_snapshot.get();
+        if (last != null && last.equalsStack(stack)) { return last; }
+        ExceptionRuntimeSteps snapshot = new ExceptionRuntimeSteps(stack.toArray(new String[stack.size()]));
+        last_snapshot.set(snapshot);
+        return snapshot;
+    }
+
+    protected final String[] steps;
+    protected volatile String stack_dump;
+
+    protected ExceptionRuntimeSteps (String[] steps) {
+        this.steps = steps;
+    }
+
+    protected boolean equalsStack (Vector<String> stack) {
+        if (stack.size() != this.steps.length) { return false; }
+        for (int i = this.steps.length - 1; i >= 0; i--) {
+            String step = stack.get(i);
+            if (step != this.steps[i] && (step == null || step.equals(this.steps[i]) == false)) { return false; }
+        }
+        return true;
+    }
+
+    public int size () {
+        return this.steps.length;
+    }
+
+    public String get (int index) {
+        return this.steps[index];
+    }
+
+    /**
+       Returns the steps as appended to detailed messages, one per line.
+    */
+    public String getStackDump () {
+        String stack_dump = this.stack_dump;
+        if (stack_dump == null) {
+            StringBuilder sb = new StringBuilder();
+            for (String step : this.steps) {
+                sb.append('\n').append(step);
+            }
+            stack_dump = this.stack_dump = sb.toString();
+        }
+        return stack_dump;
+    }
+}
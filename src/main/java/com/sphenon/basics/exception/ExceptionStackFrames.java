@@ -0,0 +1,105 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.EnumSet;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The topmost frames of a java stack, as recorded at construction time of
+    an exception by a bounded
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionStackTracePolicy">ExceptionStackTracePolicy</link>.
+    Frames are kept as StackWalker frames and converted into
+    StackTraceElements only when actually requested.
+*/
+public class ExceptionStackFrames {
+
+    static protected final StackWalker walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    // shows the frames regular stack traces show, for comparison with those
+    static protected final StackWalker reflect_walker = StackWalker.getInstance(EnumSet.of(StackWalker.Option.RETAIN_CLASS_REFERENCE, StackWalker.Option.SHOW_REFLECT_FRAMES));
+
+    protected StackWalker.StackFrame[] frames;
+
+    protected ExceptionStackFrames () {
+    }
+
+    protected ExceptionStackFrames (StackWalker.StackFrame[] frames) {
+        this.frames = frames;
+    }
+
+    /**
+       Records at most maximum_depth frames of the current stack, omitting
+       the frames of the throwable's own construction, like the java
+       runtime does for regular stack traces.
+    */
+    static public ExceptionStackFrames capture (int maximum_depth) {
+        return new ExceptionStackFrames(walker.walk(s -> s.dropWhile(ExceptionStackFrames::isConstructionFrame).limit(maximum_depth).toArray(StackWalker.StackFrame[]::new)));
+    }
+
+    /**
+       Records at most maximum_depth frames of the current stack below the
+       frames of the throwable's classes, for callers running within its
+       construction; the frames of its factory methods are omitted as well.
+       Reflection frames are included, like in regular stack traces.
+    */
+    static public ExceptionStackFrames captureBelow (Throwable t, int maximum_depth) {
+        Class c = t.getClass();
+        return new ExceptionStackFrames(reflect_walker.walk(s -> s.dropWhile(frame -> frame.getDeclaringClass().isAssignableFrom(c) == false)
+                                                            .dropWhile(frame -> frame.getDeclaringClass().isAssignableFrom(c))
+                                                            .limit(maximum_depth).toArray(StackWalker.StackFrame[]::new)));
+    }
+
+    static protected boolean isConstructionFrame (StackWalker.StackFrame frame) {
+        Class c = frame.getDeclaringClass();
+        if (ExceptionStackFrames.class.isAssignableFrom(c)) { return true; }
+        if (Throwable.class.isAssignableFrom(c) == false) { return false; }
+        String method = frame.getMethodName();
+        return method.equals("<init>") || method.equals("fillInStackTrace");
+    }
+
+    public int size () {
+        return this.frames.length;
+    }
+
+    public String getClassName (int index) {
+        return this.frames[index].getClassName();
+    }
+
+    public String getMethodName (int index) {
+        return this.frames[index].getMethodName();
+    }
+
+    public int getLineNumber (int index) {
+        return this.frames[index].getLineNumber();
+    }
+
+    public String getFileName (int index) {
+        return this.frames[index].getFileName();
+    }
+
+    public StackTraceElement getStackTraceElement (int index) {
+        return this.frames[index].toStackTraceElement();
+    }
+
+    public StackTraceElement[] toStackTrace () {
+        StackTraceElement[] stack_trace = new StackTraceElement[this.frames.length];
+        for (int i=0; i<this.frames.length; i++) {
+            stack_trace[i] = this.frames[i].toStackTraceElement();
+        }
+        return stack_trace;
+    }
+}
@@ -0,0 +1,158 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Determines whether and how exceptions of a given class capture the java
+    stack at construction time.
+
+    Policies are registered per class and inherited by subclasses, i.e.
+    a policy registered for
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ReturnCode">ReturnCode</link>
+    applies to all ReturnCodes which do not have a more specific one. Classes
+    without any registered policy use the default policy, which is
+    initially FULL.
+
+    Typical use: ReturnCodes which are thrown and caught in hot paths as
+    ordinary control flow do not need a stack trace at all, register
+    NONE for them. ExceptionErrors from deep framework stacks may be
+    restricted to the topmost frames with a bounded policy, these frames
+    are recorded via StackWalker and converted to StackTraceElements only
+    on demand.
+
+    ExceptionErrors which are retained in large numbers, e.g. as causes
+    of aggregate failures kept for later reports, may use an interned
+    policy, optionally bounded. Their frames are stored as indices into
+    the global
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionFrameTable">ExceptionFrameTable</link>,
+    and the outer frames they have in common with their cause are stored
+    only once, see
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionInternedStackFrames">ExceptionInternedStackFrames</link>.
+*/
+public class ExceptionStackTracePolicy {
+
+    static public final ExceptionStackTracePolicy FULL     = new ExceptionStackTracePolicy("FULL", -1, false);
+    static public final ExceptionStackTracePolicy NONE     = new ExceptionStackTracePolicy("NONE", 0, false);
+    static public final ExceptionStackTracePolicy INTERNED = new ExceptionStackTracePolicy("INTERNED", -1, true);
+
+    static public ExceptionStackTracePolicy bounded (int maximum_depth) {
+        return maximum_depth <= 0 ? NONE : new ExceptionStackTracePolicy("BOUNDED(" + maximum_depth + ")", maximum_depth, false);
+    }
+
+    static public ExceptionStackTracePolicy boundedInterned (int maximum_depth) {
+        return maximum_depth <= 0 ? NONE : new ExceptionStackTracePolicy("BOUNDED_INTERNED(" + maximum_depth + ")", maximum_depth, true);
+    }
+
+    protected String name;
+    protected int maximum_depth;
+    protected boolean interned;
+
+    protected ExceptionStackTracePolicy (String name, int maximum_depth, boolean interned) {
+        this.name = name;
+        this.maximum_depth = maximum_depth;
+        this.interned = interned;
+    }
+
+    public boolean capturesStack () {
+        return this.maximum_depth != 0;
+    }
+
+    public boolean isBounded () {
+        return this.maximum_depth > 0;
+    }
+
+    public boolean isInterned () {
+        return this.interned;
+    }
+
+    public int getMaximumDepth () {
+        return this.maximum_depth;
+    }
+
+    public String toString () {
+        return this.name;
+    }
+
+    static protected volatile ExceptionStackTracePolicy default_policy = FULL;
+
+    static protected Map<Class,ExceptionStackTracePolicy> policies = new ConcurrentHashMap<Class,ExceptionStackTracePolicy>();
+
+    static protected class Resolved {
+        protected final int generation;
+        protected final ExceptionStackTracePolicy policy;
+
+        protected Resolved (int generation, ExceptionStackTracePolicy policy) {
+            this.generation = generation;
+            this.policy = policy;
+        }
+    }
+
+    // incremented on each registration, after the registration took effect;
+    // a policy resolved under an older generation is resolved again
+    static protected final AtomicInteger generation = new AtomicInteger();
+
+    // policies resolved along the superclass chain; a ClassValue, so
+    // resolved classes do not pin their class loaders
+    static protected final ClassValue<Resolved> resolved = new ClassValue<Resolved>() {
+        protected Resolved computeValue (Class c) {
+            int current_generation = generation.get();
+            ExceptionStackTracePolicy policy = null;
+            for (Class sc = c; sc != null && policy == null; sc = sc.getSuperclass()) {
+                policy = policies.get(sc);
+            }
+            return new Resolved(current_generation, policy == null ? default_policy : policy);
+        }
+    };
+
+    static public void setDefault (CallContext context, ExceptionStackTracePolicy policy) {
+        default_policy = (policy == null ? FULL : policy);
+        generation.incrementAndGet();
+    }
+
+    static public ExceptionStackTracePolicy getDefault (CallContext context) {
+        return default_policy;
+    }
+
+    static public void set (CallContext context, Class c, ExceptionStackTracePolicy policy) {
+        if (policy == null) {
+            policies.remove(c);
+        } else {
+            policies.put(c, policy);
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+       Returns the policy for the given class, without a CallContext since
+       it is queried from within Throwable construction.
+    */
+    static public ExceptionStackTracePolicy get (Class c) {
+        Resolved result = resolved.get(c);
+        if (result.generation != generation.get()) {
+            resolved.remove(c);
+            result = resolved.get(c);
+        }
+        return result.policy;
+    }
+}
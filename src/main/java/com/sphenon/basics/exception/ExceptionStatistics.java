@@ -0,0 +1,315 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Counts exceptions created per class, and measures the time spent in
+    capturing stack traces, rendering detailed messages, dumping and
+    resolving help texts, as well as hits and misses per matcher class
+    and of the help text cache.
+
+    All counters are LongAdders, i.e. striped per thread and not contended,
+    so the statistics may remain enabled in production; when disabled, the
+    cost is one volatile read per measuring point. Per class counters are
+    found via a ClassValue and aggregated by class name, so counting does
+    not keep classes or their class loaders alive.
+
+    Via register() the statistics are published as MXBean
+    "com.sphenon.basics.exception:type=ExceptionStatistics" and can be
+    switched on and off there at runtime; an application which unloads
+    this module should unregister() them again.
+*/
+public class ExceptionStatistics implements ExceptionStatisticsMXBean {
+
+    static public class Histogram {
+        static protected final int BUCKETS = 40; // up to 2^39 ns, about 9 minutes
+
+        protected final LongAdder[] buckets;
+        protected final LongAdder total_nanos;
+
+        public Histogram () {
+            this.buckets = new LongAdder[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+            this.total_nanos = new LongAdder();
+        }
+
+        /**
+           Records the time passed since start, as returned by
+           ExceptionStatistics.start(), if that measurement was enabled.
+        */
+        public void record (long start) {
+            if (start == 0) { return; }
+            long nanos = System.nanoTime() - start;
+            if (nanos < 0) { nanos = 0; }
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+            this.buckets[bucket < BUCKETS ? bucket : BUCKETS - 1].increment();
+            this.total_nanos.add(nanos);
+        }
+
+        public Map<String,Long> getBuckets () {
+            Map<String,Long> result = new TreeMap<String,Long>();
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = this.buckets[i].sum();
+                if (count != 0) {
+                    result.put(String.format("<%013d", 1L << i), count);
+                }
+            }
+            return result;
+        }
+
+        public long getTotalNanos () {
+            return this.total_nanos.sum();
+        }
+
+        public void reset () {
+            for (LongAdder bucket : this.buckets) {
+                bucket.reset();
+            }
+            this.total_nanos.reset();
+        }
+    }
+
+    static protected volatile boolean enabled = true;
+
+    static public final Histogram STACK_CAPTURE          = new Histogram();
+    static public final Histogram MESSAGE_RENDERING      = new Histogram();
+    static public final Histogram DUMP                   = new Histogram();
+    static public final Histogram HELP_TEXT_RESOLUTION   = new Histogram();
+
+    /**
+       Counters per class name; classes of the same name from different
+       class loaders share a counter.
+    */
+    static public class ClassCounters extends ClassValue<LongAdder> {
+        protected final Map<String,LongAdder> counters = new ConcurrentHashMap<String,LongAdder>();
+
+        protected LongAdder computeValue (Class<?> c) {
+            return this.counters.computeIfAbsent(c.getName(), k -> new LongAdder());
+        }
+
+        public void increment (Class c) {
+            this.get(c).increment();
+        }
+
+        public Map<String,Long> toMap () {
+            Map<String,Long> result = new TreeMap<String,Long>();
+            for (Map.Entry<String,LongAdder> entry : this.counters.entrySet()) {
+                long count = entry.getValue().sum();
+                if (count != 0) {
+                    result.put(entry.getKey(), count);
+                }
+            }
+            return result;
+        }
+
+        // the counters stay in place, since classes keep referring to them
+        public void reset () {
+            for (LongAdder counter : this.counters.values()) {
+                counter.reset();
+            }
+        }
+    }
+
+    static protected final ClassCounters creations      = new ClassCounters();
+    static protected final ClassCounters matcher_hits   = new ClassCounters();
+    static protected final ClassCounters matcher_misses = new ClassCounters();
+
+    static public final LongAdder HELP_TEXT_CACHE_HITS      = new LongAdder();
+    static public final LongAdder HELP_TEXT_CACHE_MISSES    = new LongAdder();
+    static public final LongAdder HELP_TEXT_CACHE_EVICTIONS = new LongAdder();
+    static public final LongAdder HELP_TEXT_CACHE_BYPASSES  = new LongAdder();
+
+    static protected final ExceptionStatistics singleton = new ExceptionStatistics();
+
+    static protected boolean registered; // guarded by singleton
+
+    static public final String OBJECT_NAME = "com.sphenon.basics.exception:type=ExceptionStatistics";
+
+    static public ExceptionStatistics getSingleton (CallContext context) {
+        return singleton;
+    }
+
+    /**
+       Registers the statistics with the platform MBean server.
+
+       @return false, if that failed, e.g. since the name is already
+               registered by another class loader; the statistics remain
+               available via getSingleton()
+    */
+    static public boolean register (CallContext context) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (singleton) {
+                if (registered) { return false; }
+                server.registerMBean(singleton, name);
+                registered = true;
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+       Unregisters the statistics from the platform MBean server, if they
+       were registered by this class.
+
+       @return false, if they were not registered by this class
+    */
+    static public boolean unregister (CallContext context) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (singleton) {
+                if (registered == false) { return false; }
+                registered = false;
+                server.unregisterMBean(name);
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    static public void setStatisticsEnabled (CallContext context, boolean is_enabled) {
+        enabled = is_enabled;
+    }
+
+    /**
+       Returns the start time for a measurement, or 0 if disabled.
+    */
+    static public long start () {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static public void countCreation (Class c) {
+        if (enabled) {
+            creations.increment(c);
+        }
+    }
+
+    static public void countMatcher (Class c, boolean hit) {
+        if (enabled) {
+            (hit ? matcher_hits : matcher_misses).increment(c);
+        }
+    }
+
+    static public void countHelpTextCache (LongAdder counter) {
+        if (enabled) {
+            counter.increment();
+        }
+    }
+
+    protected ExceptionStatistics () {
+    }
+
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    public void setEnabled (boolean is_enabled) {
+        enabled = is_enabled;
+    }
+
+    public Map<String,Long> getCreationCounts () {
+        return creations.toMap();
+    }
+
+    public Map<String,Long> getStackCaptureHistogram () {
+        return STACK_CAPTURE.getBuckets();
+    }
+
+    public Map<String,Long> getMessageRenderingHistogram () {
+        return MESSAGE_RENDERING.getBuckets();
+    }
+
+    public Map<String,Long> getDumpHistogram () {
+        return DUMP.getBuckets();
+    }
+
+    public Map<String,Long> getHelpTextResolutionHistogram () {
+        return HELP_TEXT_RESOLUTION.getBuckets();
+    }
+
+    public long getStackCaptureNanos () {
+        return STACK_CAPTURE.getTotalNanos();
+    }
+
+    public long getMessageRenderingNanos () {
+        return MESSAGE_RENDERING.getTotalNanos();
+    }
+
+    public long getDumpNanos () {
+        return DUMP.getTotalNanos();
+    }
+
+    public long getHelpTextResolutionNanos () {
+        return HELP_TEXT_RESOLUTION.getTotalNanos();
+    }
+
+    public Map<String,Long> getMatcherHitCounts () {
+        return matcher_hits.toMap();
+    }
+
+    public Map<String,Long> getMatcherMissCounts () {
+        return matcher_misses.toMap();
+    }
+
+    public long getHelpTextCacheHits () {
+        return HELP_TEXT_CACHE_HITS.sum();
+    }
+
+    public long getHelpTextCacheMisses () {
+        return HELP_TEXT_CACHE_MISSES.sum();
+    }
+
+    public long getHelpTextCacheEvictions () {
+        return HELP_TEXT_CACHE_EVICTIONS.sum();
+    }
+
+    public long getHelpTextCacheBypasses () {
+        return HELP_TEXT_CACHE_BYPASSES.sum();
+    }
+
+    public void reset () {
+        creations.reset();
+        matcher_hits.reset();
+        matcher_misses.reset();
+        STACK_CAPTURE.reset();
+        MESSAGE_RENDERING.reset();
+        DUMP.reset();
+        HELP_TEXT_RESOLUTION.reset();
+        HELP_TEXT_CACHE_HITS.reset();
+        HELP_TEXT_CACHE_MISSES.reset();
+        HELP_TEXT_CACHE_EVICTIONS.reset();
+        HELP_TEXT_CACHE_BYPASSES.reset();
+    }
+}
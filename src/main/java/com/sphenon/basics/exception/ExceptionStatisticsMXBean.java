@@ -0,0 +1,49 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.util.Map;
+
+/**
+   Management interface of ExceptionStatistics. Histograms map the upper
+   bound of each bucket, in nanoseconds, to the number of measurements.
+*/
+public interface ExceptionStatisticsMXBean {
+    public boolean isEnabled();
+    public void setEnabled(boolean enabled);
+
+    public Map<String,Long> getCreationCounts();
+
+    public Map<String,Long> getStackCaptureHistogram();
+    public Map<String,Long> getMessageRenderingHistogram();
+    public Map<String,Long> getDumpHistogram();
+    public Map<String,Long> getHelpTextResolutionHistogram();
+
+    public long getStackCaptureNanos();
+    public long getMessageRenderingNanos();
+    public long getDumpNanos();
+    public long getHelpTextResolutionNanos();
+
+    public Map<String,Long> getMatcherHitCounts();
+    public Map<String,Long> getMatcherMissCounts();
+
+    public long getHelpTextCacheHits();
+    public long getHelpTextCacheMisses();
+    public long getHelpTextCacheEvictions();
+    // lookups of throwables whose help text may not be cached
+    public long getHelpTextCacheBypasses();
+
+    public void reset();
+}
@@ -18,14 +18,38 @@ import com.sphenon.basics.context.*;
 import com.sphenon.basics.variatives.*;
 import com.sphenon.basics.variatives.classes.*;
 
+import java.util.Arrays;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The strings of this package, in all available languages.
+
+    Besides entering the generated strings into the pool, the constructor
+    indexes them by the numbers of their ids "package.file.string" and
+    the ordinal of their language. Looking up a string by its id
+    therefore only parses the numeric id and reads the index; unknown ids
+    and languages are left to the pool.
+
+    Callers which retrieve the same string repeatedly resolve it once via
+    getText() and its language once via getLanguage(), and then merely
+    read the array of its translations.
+*/
 public class ExceptionStringPool extends StringPoolClass {
-    static protected ExceptionStringPool singleton = null;
+    static protected volatile ExceptionStringPool singleton = null;
 
     static public ExceptionStringPool getSingleton (CallContext cc) {
-        if (singleton == null) {
-            singleton = new ExceptionStringPool(cc);
+        ExceptionStringPool result = singleton;
+        if (result == null) {
+            synchronized (ExceptionStringPool.class) {
+                result = singleton;
+                if (result == null) {
+                    result = singleton = new ExceptionStringPool(cc);
+                }
+            }
         }
-        return singleton;
+        return result;
     }
 
     static public VariativeString get(CallContext cc, String id) {
@@ -33,9 +57,63 @@ public class ExceptionStringPool extends StringPoolClass {
     }
 
     static public String get(CallContext cc, String id, String isolang) {
-        return getSingleton(cc).getString(cc, id, isolang);
+        ExceptionStringPool pool = getSingleton(cc);
+        String text = pool.lookup(id, isolang);
+        // unknown ids and languages are left to the pool, which knows
+        // about fallbacks
+        return text != null ? text : pool.getString(cc, id, isolang);
+    }
+
+    /**
+       A string of the pool, with its id resolved once.
+    */
+    static public class Text {
+        protected final ExceptionStringPool pool;
+        protected final String id;
+        protected final String[] by_language; // null: not indexed
+
+        protected Text (ExceptionStringPool pool, String id, String[] by_language) {
+            this.pool = pool;
+            this.id = id;
+            this.by_language = by_language;
+        }
+
+        public String getId () {
+            return this.id;
+        }
+
+        /**
+           @param language as returned by getLanguage()
+        */
+        public String get (CallContext cc, int language) {
+            String[] by_language = this.by_language;
+            String text = (by_language != null && language >= 0 && language < by_language.length ? by_language[language] : null);
+            return text != null ? text : this.pool.getString(cc, this.id, language >= 0 && language < this.pool.languages.length ? this.pool.languages[language] : null);
+        }
+
+        public String get (CallContext cc, String isolang) {
+            int language = this.pool.getLanguage(isolang);
+            return language >= 0 ? this.get(cc, language) : this.pool.getString(cc, this.id, isolang);
+        }
+    }
+
+    static public Text getText(CallContext cc, String id) {
+        ExceptionStringPool pool = getSingleton(cc);
+        return new Text(pool, id, pool.lookup(id));
+    }
+
+    /**
+       Returns the ordinal of the language within the index, or -1 if no
+       string is indexed in that language.
+    */
+    static public int getLanguage(CallContext cc, String isolang) {
+        return getSingleton(cc).getLanguage(isolang);
     }
 
+    // filled by the constructor only, read-only once published as singleton
+    protected String[] languages = new String[0];
+    protected String[][][][] texts = new String[0][][][]; // package, file, string, language
+
     protected ExceptionStringPool (CallContext cc) {
         super(cc);
         /*************************************************/
@@ -54,4 +132,91 @@ public class ExceptionStringPool extends StringPoolClass {
         //END-OF-STRINGS
         /*************************************************/
     }
+
+    /**
+       Enters the string into the pool and into the index.
+    */
+    public void addEntry(CallContext cc, String id, String isolang, String text) {
+        super.addEntry(cc, id, isolang, text);
+        long position = parseId(id);
+        if (position < 0) { return; }
+        int p = (int) (position >>> 42), f = (int) ((position >>> 21) & ID_PART_MASK), n = (int) (position & ID_PART_MASK);
+        int language = this.getLanguage(isolang);
+        if (language < 0) {
+            language = this.languages.length;
+            this.languages = Arrays.copyOf(this.languages, language + 1);
+            this.languages[language] = isolang;
+        }
+        if (p >= this.texts.length) { this.texts = Arrays.copyOf(this.texts, p + 1); }
+        if (this.texts[p] == null) { this.texts[p] = new String[0][][]; }
+        if (f >= this.texts[p].length) { this.texts[p] = Arrays.copyOf(this.texts[p], f + 1); }
+        if (this.texts[p][f] == null) { this.texts[p][f] = new String[0][]; }
+        if (n >= this.texts[p][f].length) { this.texts[p][f] = Arrays.copyOf(this.texts[p][f], n + 1); }
+        String[] by_language = this.texts[p][f][n];
+        if (by_language == null || language >= by_language.length) {
+            by_language = this.texts[p][f][n] = (by_language == null ? new String[language + 1] : Arrays.copyOf(by_language, language + 1));
+        }
+        by_language[language] = text;
+    }
+
+    /**
+       Returns the indexed string, or null if unknown.
+    */
+    protected String lookup(String id, String isolang) {
+        int language = this.getLanguage(isolang);
+        if (language < 0) { return null; }
+        String[] by_language = this.lookup(id);
+        return by_language == null || language >= by_language.length ? null : by_language[language];
+    }
+
+    /**
+       Returns the indexed translations by language ordinal, or null if
+       unknown.
+    */
+    protected String[] lookup(String id) {
+        long position = parseId(id);
+        if (position < 0) { return null; }
+        int p = (int) (position >>> 42), f = (int) ((position >>> 21) & ID_PART_MASK), n = (int) (position & ID_PART_MASK);
+        String[][][][] texts = this.texts;
+        if (p >= texts.length || texts[p] == null || f >= texts[p].length || texts[p][f] == null || n >= texts[p][f].length) {
+            return null;
+        }
+        return texts[p][f][n];
+    }
+
+    protected int getLanguage(String isolang) {
+        for (int i = 0; i < this.languages.length; i++) {
+            if (this.languages[i].equals(isolang)) { return i; }
+        }
+        return -1;
+    }
+
+    static protected final int  ID_PART_LIMIT = 100000;
+    static protected final long ID_PART_MASK  = (1L << 21) - 1;
+
+    /**
+       Returns the numbers of a string id of the form "package.file.string",
+       21 bits each, or -1 if the id is not of this form; numbers with
+       leading zeros are not of this form, since they denote other ids.
+    */
+    static protected long parseId(String id) {
+        if (id == null || id.length() == 0) { return -1; }
+        long result = 0;
+        int n = 0, part = 0, digits = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '.') {
+                if (++part == 3 || digits == 0) { return -1; }
+                result = (result << 21) | n;
+                n = 0; digits = 0;
+            } else if (c >= '0' && c <= '9' && n < ID_PART_LIMIT && (digits == 0 || n != 0)) {
+                n = n * 10 + (c - '0');
+                digits++;
+            } else {
+                return -1;
+            }
+        }
+        if (part != 2 || digits == 0) { return -1; }
+        return (result << 21) | n;
+    }
 }
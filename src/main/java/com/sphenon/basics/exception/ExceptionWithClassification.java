@@ -0,0 +1,30 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Implemented by exceptions which cache the classification of their
+    cause chain, see
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionClassification">ExceptionClassification</link>.
+*/
+public interface ExceptionWithClassification {
+
+    /**
+       Returns the classification of this exception and its causes.
+    */
+    public ExceptionClassification getClassification ();
+}
@@ -0,0 +1,61 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+   Flight recorder event for ExceptionHelpTextRegistry.get(), with the time
+   taken and the matcher, rule, registration or translator which provided
+   the help text. Enabled via e.g.
+   "jcmd &lt;pid&gt; JFR.start settings=profile"; without an active recording
+   it costs a check of a static flag.
+*/
+@Name("com.sphenon.basics.exception.HelpTextResolution")
+@Label("Help Text Resolution")
+@Category({"Sphenon", "Exceptions"})
+@Description("Resolution of the end user help text for a throwable")
+@StackTrace(false)
+public class HelpTextResolutionEvent extends Event {
+
+    @Label("Throwable Class")
+    public Class<?> throwableClass;
+
+    @Label("Matched By")
+    @Description("Matcher, rule, registration or translator which provided the help text")
+    public String matchedBy;
+
+    static protected HelpTextResolutionEvent start () {
+        HelpTextResolutionEvent event = new HelpTextResolutionEvent();
+        if (event.isEnabled() == false) { return null; }
+        event.begin();
+        return event;
+    }
+
+    static protected void finish (HelpTextResolutionEvent event, Throwable t, String matched_by) {
+        if (event == null) { return; }
+        event.end();
+        if (event.shouldCommit()) {
+            event.throwableClass = t.getClass();
+            event.matchedBy = matched_by;
+            event.commit();
+        }
+    }
+}
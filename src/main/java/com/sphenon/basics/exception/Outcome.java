@@ -0,0 +1,186 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    The outcome of an operation which either succeeds with a value or
+    fails with a
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ReturnCode">ReturnCode</link>.
+
+    A failure is described as plain data, i.e. class, message and causes
+    of the ReturnCode; the ReturnCode itself, including its stack trace, is
+    created only if actually needed, e.g. by orThrow(). Callers which
+    merely branch on success or failure therefore do not pay for creating,
+    throwing and catching exceptions.
+
+    Existing methods throwing ReturnCodes are bridged via of(), and
+    outcomes are turned back into thrown ReturnCodes via orThrow():
+
+    <pre>
+    Outcome&lt;Item,NotFound&gt; outcome = Outcome.of(() -&gt; store.get(context, key));
+    if (outcome.isFailure()) { ... }
+    Item item = outcome.orThrow();
+    </pre>
+*/
+public class Outcome<T, R extends ReturnCode> {
+
+    /**
+       Creates ReturnCodes of a given class, usually a reference to its
+       constructor.
+    */
+    static public interface ReturnCodeFactory<R extends ReturnCode> {
+        public R create(CallContext context, Throwable cause, Message message);
+    }
+
+    /**
+       An operation which returns a value or throws a ReturnCode.
+    */
+    static public interface Operation<T, R extends ReturnCode> {
+        public T perform() throws R;
+    }
+
+    static protected final Outcome SUCCESS = new Outcome(null, null, null, null, null, null, null);
+
+    protected T                    value;
+    protected CallContext          context;
+    protected Class<R>             return_code_class;
+    protected ReturnCodeFactory<R> factory;
+    protected Message              message;
+    protected Throwable[]          causes;
+    protected R                    return_code;
+
+    protected Outcome (T value, CallContext context, Class<R> return_code_class, ReturnCodeFactory<R> factory, Message message, Throwable[] causes, R return_code) {
+        this.value = value;
+        this.context = context;
+        this.return_code_class = return_code_class;
+        this.factory = factory;
+        this.message = message;
+        this.causes = causes;
+        this.return_code = return_code;
+    }
+
+    @SuppressWarnings("unchecked")
+    static public <T, R extends ReturnCode> Outcome<T,R> success (T value) {
+        return value == null ? (Outcome<T,R>) SUCCESS : new Outcome<T,R>(value, null, null, null, null, null, null);
+    }
+
+    /**
+       Describes a failure; the ReturnCode is created from the given data
+       by the factory, with the context given here, when needed.
+    */
+    static public <T, R extends ReturnCode> Outcome<T,R> failure (CallContext context, Class<R> return_code_class, ReturnCodeFactory<R> factory, Message message, Throwable... causes) {
+        return new Outcome<T,R>(null, context, return_code_class, factory, message, (causes == null || causes.length == 0 ? null : causes), null);
+    }
+
+    /**
+       Wraps an already existing ReturnCode.
+    */
+    @SuppressWarnings("unchecked")
+    static public <T, R extends ReturnCode> Outcome<T,R> failure (R return_code) {
+        return new Outcome<T,R>(null, null, (Class<R>) return_code.getClass(), null, return_code.getMessageObject(null), return_code.getCauses(null), return_code);
+    }
+
+    /**
+       Performs an operation, and returns its value as success or the
+       ReturnCode it throws as failure.
+    */
+    @SuppressWarnings("unchecked")
+    static public <T, R extends ReturnCode> Outcome<T,R> of (Operation<T,R> operation) {
+        try {
+            return success(operation.perform());
+        } catch (ReturnCode return_code) {
+            // the operation can throw nothing but R
+            return failure((R) return_code);
+        }
+    }
+
+    public boolean isSuccess () {
+        return this.return_code_class == null;
+    }
+
+    public boolean isFailure () {
+        return this.return_code_class != null;
+    }
+
+    /**
+       Whether this is a failure with a ReturnCode of the given class or
+       one of its subclasses.
+    */
+    public boolean isFailure (Class<? extends ReturnCode> return_code_class) {
+        return this.return_code_class != null && return_code_class.isAssignableFrom(this.return_code_class);
+    }
+
+    /**
+       Returns the value in case of success, null otherwise.
+    */
+    public T getValue () {
+        return this.value;
+    }
+
+    public T orElse (T alternative) {
+        return this.isSuccess() ? this.value : alternative;
+    }
+
+    public Class<R> getReturnCodeClass () {
+        return this.return_code_class;
+    }
+
+    public Message getMessage () {
+        return this.message;
+    }
+
+    /**
+       Returns the causes of the failure, or null; the array must not be
+       modified.
+    */
+    public Throwable[] getCauses () {
+        return this.causes;
+    }
+
+    /**
+       Returns the ReturnCode of a failure, creating it on first call, or
+       null in case of success.
+    */
+    public synchronized R getReturnCode () {
+        if (this.return_code == null && this.isFailure()) {
+            R return_code = this.factory.create(this.context, this.causes == null ? null : this.causes[0], this.message);
+            for (int i = 1; this.causes != null && i < this.causes.length; i++) {
+                return_code.addCause(this.context, this.causes[i]);
+            }
+            this.return_code = return_code;
+        }
+        return this.return_code;
+    }
+
+    /**
+       Returns the value in case of success, throws the ReturnCode
+       otherwise.
+    */
+    public T orThrow () throws R {
+        if (this.isFailure()) {
+            throw this.getReturnCode();
+        }
+        return this.value;
+    }
+
+    public String toString () {
+        return this.isSuccess() ? ("success: " + this.value) : ("failure: " + this.return_code_class.getName() + (this.message == null ? "" : (" : " + this.message)));
+    }
+}
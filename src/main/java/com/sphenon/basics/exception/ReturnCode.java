@@ -18,7 +18,8 @@ import com.sphenon.basics.context.*;
 import com.sphenon.basics.debug.*;
 import com.sphenon.basics.message.*;
 
-import java.util.Vector;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /** {@EntitySecurityClass User}
 
@@ -31,32 +32,123 @@ import java.util.Vector;
     thrown, and should be caught and processed by the caller. They provide
     a means of returning a processing result in addition to what is
     declared as the return value.
+
+    Since ReturnCodes are frequently used as ordinary control flow, capturing
+    the java stack can be switched off, either per class via
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionStackTracePolicy">ExceptionStackTracePolicy</link>
+    or per instance via the respective constructor. Stackless ReturnCodes
+    do not capture a stack trace. Those created stackless via the
+    constructor do not record suppressed exceptions either; those of a
+    stackless policy still do. Stackless ReturnCodes are not recorded by
+    the
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/ExceptionFlightRecorder">ExceptionFlightRecorder</link>
+    unless this is switched on there.
 */
-public class ReturnCode extends java.lang.Exception implements Dumpable, ExceptionWithMultipleCauses, ExceptionWithHelpMessage {
+public class ReturnCode extends java.lang.Exception implements Dumpable, ExceptionWithMultipleCauses, ExceptionWithHelpMessage, ExceptionWithFingerprint, ExceptionWithClassification {
 
-    protected Context context;
+    // the context is derived from call_context on first access only, since
+    // most instances are caught and discarded without ever accessing it
+    protected CallContext call_context;
+    protected volatile Context context;
     protected Message message;
     protected MessageText help_message_text; // end user readable
-    protected Throwable[] causes;
+    protected volatile Throwable[] causes; // shared, never modified, refreshed from cause_list when read
+    // created on the first addCause() only, for adding concurrently without locking
+    private volatile ExceptionCauses cause_list;
+    // assigned by fillInStackTrace() while still within the Throwable
+    // constructor, therefore it must not be given an initialiser here
+    protected boolean stack_captured;
+    // set by the stackless constructor, whose Throwable constructor
+    // initialises the cause to null; initCause() then checks by itself
+    protected boolean cause_initialisable;
+    protected volatile ExceptionMessageMemo message_memo;
+    protected volatile long fingerprint;
+    protected volatile ExceptionClassification classification;
+    protected volatile boolean multiple_causes_reported;
+
+    static protected final VarHandle CAUSE_LIST;
+    static {
+        try {
+            CAUSE_LIST = MethodHandles.lookup().findVarHandle(ReturnCode.class, "cause_list", ExceptionCauses.class);
+        } catch (ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+    }
 
     protected ReturnCode (CallContext call_context, Throwable cause, Message message) {
         this(call_context, cause, message, null);
     }
 
     protected ReturnCode (CallContext call_context, Throwable cause, Message message, MessageText help_message_text) {
-        this.context = Context.create(call_context);
+        super();
+        this.initialise(call_context, cause, message, help_message_text);
+    }
+
+    protected ReturnCode (CallContext call_context, Throwable cause, Message message, MessageText help_message_text, boolean stackless) {
+        super(null, null, stackless == false, stackless == false);
+        this.cause_initialisable = true;
+        this.initialise(call_context, cause, message, help_message_text);
+    }
+
+    protected void initialise (CallContext call_context, Throwable cause, Message message, MessageText help_message_text) {
+        this.call_context = call_context;
         this.message = message;
         this.help_message_text = help_message_text;
-        if (cause != null) {
-            this.causes = new Throwable[1];
-            this.causes[0] = cause;
-        } else {
-            this.causes = null;
+        this.causes = (cause == null ? null : new Throwable[] { cause });
+        ExceptionStatistics.countCreation(this.getClass());
+        ExceptionCreationEvent.emit(this, ReturnCode.class, call_context);
+        if (this.stack_captured || ExceptionFlightRecorder.isRecordingStacklessReturnCodes()) {
+            ExceptionFlightRecorder.record(this, ReturnCode.class, call_context, this.stack_captured, null, null);
         }
     }
 
+    /**
+       As for any Throwable, the cause may be initialised once; the causes
+       reported are those given to the constructor and to addCause().
+    */
+    public synchronized Throwable initCause (Throwable cause) {
+        if (this.cause_initialisable == false) {
+            return super.initCause(cause);
+        }
+        if (cause == this) {
+            throw new IllegalArgumentException("Self-causation not permitted", this);
+        }
+        this.cause_initialisable = false;
+        return this;
+    }
+
+    public synchronized Throwable fillInStackTrace () {
+        if (ExceptionStackTracePolicy.get(this.getClass()).capturesStack() == false) {
+            this.stack_captured = false;
+            return this;
+        }
+        long start = ExceptionStatistics.start();
+        super.fillInStackTrace();
+        this.stack_captured = true;
+        ExceptionStatistics.STACK_CAPTURE.record(start);
+        return this;
+    }
+
+    protected ExceptionMessageMemo getMessageMemo () {
+        ExceptionMessageMemo memo = this.message_memo;
+        if (memo == null) {
+            memo = this.message_memo = new ExceptionMessageMemo();
+        }
+        return memo;
+    }
+
     public Context getContext () {
-        return this.context;
+        Context context = this.context;
+        if (context == null) {
+            synchronized (this) {
+                context = this.context;
+                if (context == null) {
+                    context = this.context = Context.create(this.call_context);
+                    this.call_context = null;
+                }
+            }
+        }
+        return context;
     }
 
     public Message getMessageObject (CallContext call_context) {
@@ -68,40 +160,89 @@ public class ReturnCode extends java.lang.Exception implements Dumpable, Excepti
     }
 
     public String getHelpMessage () {
+        return this.getHelpMessageText() == null ? null : this.getHelpMessage(this.getContext());
+    }
+
+    public String getHelpMessage (CallContext context) {
         MessageText mt = this.getHelpMessageText();
-        return mt == null ? null : mt.getText(this.getContext());
+        return mt == null ? null : this.getMessageMemo().getHelpMessage(context, mt);
     }
 
     public Throwable[] getCauses (CallContext call_context) {
-        return this.causes;
+        ExceptionCauses cause_list = this.cause_list;
+        if (cause_list == null) {
+            return this.causes;
+        }
+        // the list keeps its snapshot until further causes are added, so
+        // appending stays constant time and reading copies once per change
+        Throwable[] snapshot = cause_list.toArray();
+        if (snapshot != this.causes) {
+            this.causes = snapshot;
+        }
+        return snapshot;
     }
 
     public Throwable getCause () {
-        if (this.causes == null || this.causes.length == 0) {
+        Throwable[] causes = this.getCauses(null);
+        if (causes == null || causes.length == 0) {
             return null; 
         }
-        if (this.causes.length > 1) {
-            System.err.println("Exception " + this + " has more than one cause, cannot report only first:");
-            for (Throwable cause : causes) {
-                System.err.println("Cause: " + cause);
-            }
+        if (causes.length > 1 && this.multiple_causes_reported == false) {
+            // racing threads may both report, the sink drops the duplicate
+            this.multiple_causes_reported = true;
+            ExceptionDiagnostics.report(null, "has more than one cause, cannot report only first", this);
         }
-        return this.causes[0];
+        return causes[0];
+    }
+
+    protected int getCauseCount () {
+        Throwable[] causes = this.getCauses(null);
+        return causes == null ? 0 : causes.length;
     }
 
+    /**
+       Adds a cause; may be called concurrently, e.g. by parallel tasks
+       contributing to one aggregate failure. Adding is amortised constant
+       time, the causes are copied into an array when read next.
+
+       The cause must not be null, null is rejected with an
+       IllegalArgumentException.
+    */
     public void addCause(CallContext call_context, Throwable cause) {
-        if (this.causes == null) {
-            this.causes = new Throwable[1];
-            this.causes[0] = cause;
-        } else {
-            Throwable[] new_causes = new Throwable[this.causes.length + 1];
-            int i;
-            for (i=0; i<this.causes.length; i++) {
-                new_causes[i] = this.causes[i];
+        ExceptionCauses cause_list = this.cause_list;
+        if (cause_list == null) {
+            ExceptionCauses new_cause_list = new ExceptionCauses();
+            Throwable[] initial_causes = this.causes;
+            if (initial_causes != null) {
+                for (Throwable initial_cause : initial_causes) {
+                    new_cause_list.add(initial_cause);
+                }
             }
-            new_causes[i] = cause;
-            this.causes = new_causes;
+            cause_list = (ExceptionCauses) CAUSE_LIST.compareAndExchange(this, (ExceptionCauses) null, new_cause_list);
+            if (cause_list == null) { cause_list = new_cause_list; }
+        }
+        cause_list.add(cause);
+        ExceptionMessageMemo memo = this.message_memo;
+        if (memo != null) {
+            memo.invalidateMessages();
+        }
+    }
+
+    public ExceptionClassification getClassification () {
+        int cause_count = this.getCauseCount();
+        ExceptionClassification result = this.classification;
+        if (result == null || result.isCurrent(cause_count) == false) {
+            result = this.classification = ExceptionClassification.classifyChain(null, this, cause_count);
         }
+        return result;
+    }
+
+    public long getFingerprint () {
+        long result = this.fingerprint;
+        if (result == 0) {
+            result = this.fingerprint = ExceptionFingerprint.compute(this, this.getStackTrace());
+        }
+        return result;
     }
 
     public String getMessage () {
@@ -109,11 +250,28 @@ public class ReturnCode extends java.lang.Exception implements Dumpable, Excepti
     }
 
     public String getMessage (boolean detailed) {
+        ExceptionMessageMemo memo = this.getMessageMemo();
+        String result_message = memo.getMessage(detailed);
+        if (result_message == null) {
+            int cause_count = this.getCauseCount();
+            long start = (detailed ? ExceptionStatistics.start() : 0);
+            result_message = memo.setMessage(detailed, this.renderMessage(detailed));
+            ExceptionStatistics.MESSAGE_RENDERING.record(start);
+            // a cause added concurrently may have been missed by rendering
+            if (this.getCauseCount() != cause_count) {
+                memo.invalidateMessages();
+            }
+        }
+        return result_message;
+    }
+
+    protected String renderMessage (boolean detailed) {
         String result_message = (this.message == null ? "" : this.message.toString());
-        if (detailed && this.causes != null) {
+        Throwable[] causes = (detailed ? this.getCauses(null) : null);
+        if (causes != null) {
             result_message += "\n[causes: ";
-            for (int i=0; i<this.causes.length; i++) {
-                result_message += (i == 0 ? "" : ",\n") + this.causes[i].toString();
+            for (int i=0; i<causes.length; i++) {
+                result_message += (i == 0 ? "" : ",\n") + causes[i].toString();
             }
             result_message += "]";
         }
@@ -129,31 +287,20 @@ public class ReturnCode extends java.lang.Exception implements Dumpable, Excepti
     }
 
     public void dump(CallContext context, DumpNode dump_node) {
-        dump_node.dump(context, "ReturnCode", this.getClass().getName().replaceFirst(".*\\.",""));
-        dump_node.dump(context, "Message", (this.message == null ? "" : this.message.toString()));
-        Vector<String> rss = RuntimeStep.getStack(this.getContext());
-        if (rss != null) {
-            DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "RuntimeSteps");
-            if (stack_dump_node != null) {
-                for (String rs : rss) {
-                    stack_dump_node.dump(context, rs);
-                }
-                stack_dump_node.close(context);
-            }
-        }
-        DumpNode stack_dump_node = dump_node.openDumpTechnicalDetails(context, "StackTrace");
-        if (stack_dump_node != null) {
-            for (StackTraceElement SE : this.getStackTrace()) {
-                stack_dump_node.dump(context, SE.toString());
-            }
-            stack_dump_node.close(context);
-        }
-        DumpNode causes_dump_node = dump_node.openDump(context, "Causes");
-        Throwable[] causes = this.getCauses(context);
-        if (causes != null) {
-            for (Throwable cause : causes) {
-                causes_dump_node.dump(context, "Cause", cause);
-            }
+        long start = ExceptionStatistics.start();
+        try {
+            this.dumpDetails(context, dump_node);
+        } finally {
+            ExceptionStatistics.DUMP.record(start);
         }
     }
+
+    protected void dumpDetails(CallContext context, DumpNode dump_node) {
+        String class_name = this.getClass().getName();
+        dump_node.dump(context, "ReturnCode", class_name.substring(class_name.lastIndexOf('.') + 1));
+        dump_node.dump(context, "Message", (this.message == null ? "" : this.message.toString()));
+        ExceptionDump.dumpRuntimeSteps(context, dump_node, this.getContext());
+        ExceptionDump.dumpStackTrace(context, dump_node, this, null, this.stack_captured);
+        ExceptionDump.dumpCauses(context, dump_node, this.getCauses(context));
+    }
 }
@@ -17,6 +17,9 @@ package com.sphenon.basics.exception;
 import com.sphenon.basics.context.*;
 import com.sphenon.basics.message.*;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /** {@EntitySecurityClass User}
 
     @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
@@ -45,22 +48,38 @@ import com.sphenon.basics.message.*;
     warnings will be issued if TransactionFailures are not caught by the application, which
     will result in runtime failures.
 */
-public class TransactionFailure extends java.lang.RuntimeException implements ExceptionWithMultipleCauses, ExceptionWithHelpMessage
+public class TransactionFailure extends java.lang.RuntimeException implements ExceptionWithMultipleCauses, ExceptionWithHelpMessage, ExceptionWithFingerprint, ExceptionWithClassification
 {
-    protected Context context;
+    // the context is derived from call_context on first access only, since
+    // most instances are caught and discarded without ever accessing it
+    protected CallContext call_context;
+    protected volatile Context context;
     protected Message message;
     protected MessageText help_message_text; // end user readable
-    protected Throwable[] causes;
+    protected volatile Throwable[] causes; // shared, never modified, refreshed from cause_list when read
+    // created on the first addCause() only, for adding concurrently without locking
+    private volatile ExceptionCauses cause_list;
+    protected volatile ExceptionMessageMemo message_memo;
+    protected volatile long fingerprint;
+    protected volatile ExceptionClassification classification;
+    protected volatile boolean multiple_causes_reported;
+
+    static protected final VarHandle CAUSE_LIST;
+    static {
+        try {
+            CAUSE_LIST = MethodHandles.lookup().findVarHandle(TransactionFailure.class, "cause_list", ExceptionCauses.class);
+        } catch (ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+    }
 
     protected TransactionFailure (CallContext call_context, Throwable cause, Message message) {
-        this.context = Context.create(call_context);
+        this.call_context = call_context;
         this.message = message;
-        if (cause != null) {
-            this.causes = new Throwable[1];
-            this.causes[0] = cause;
-        } else {
-            this.causes = null;
-        }
+        this.causes = (cause == null ? null : new Throwable[] { cause });
+        ExceptionStatistics.countCreation(this.getClass());
+        ExceptionCreationEvent.emit(this, TransactionFailure.class, call_context);
+        ExceptionFlightRecorder.record(this, TransactionFailure.class, call_context, true, null, null);
     }
 
     protected TransactionFailure (CallContext call_context, Throwable cause, Message message, MessageText help_message_text) {
@@ -68,8 +87,33 @@ public class TransactionFailure extends java.lang.RuntimeException implements Ex
         this.help_message_text = help_message_text;
     }
 
+    public synchronized Throwable fillInStackTrace () {
+        long start = ExceptionStatistics.start();
+        super.fillInStackTrace();
+        ExceptionStatistics.STACK_CAPTURE.record(start);
+        return this;
+    }
+
+    protected ExceptionMessageMemo getMessageMemo () {
+        ExceptionMessageMemo memo = this.message_memo;
+        if (memo == null) {
+            memo = this.message_memo = new ExceptionMessageMemo();
+        }
+        return memo;
+    }
+
     public Context getContext () {
-        return this.context;
+        Context context = this.context;
+        if (context == null) {
+            synchronized (this) {
+                context = this.context;
+                if (context == null) {
+                    context = this.context = Context.create(this.call_context);
+                    this.call_context = null;
+                }
+            }
+        }
+        return context;
     }
 
     public Message getMessageObject (CallContext call_context) {
@@ -81,40 +125,99 @@ public class TransactionFailure extends java.lang.RuntimeException implements Ex
     }
 
     public String getHelpMessage () {
+        return this.getHelpMessageText() == null ? null : this.getHelpMessage(this.getContext());
+    }
+
+    public String getHelpMessage (CallContext context) {
         MessageText mt = this.getHelpMessageText();
-        return mt == null ? null : mt.getText(this.getContext());
+        return mt == null ? null : this.getMessageMemo().getHelpMessage(context, mt);
     }
 
     public Throwable[] getCauses (CallContext call_context) {
-        return this.causes;
+        ExceptionCauses cause_list = this.cause_list;
+        if (cause_list == null) {
+            return this.causes;
+        }
+        // the list keeps its snapshot until further causes are added, so
+        // appending stays constant time and reading copies once per change
+        Throwable[] snapshot = cause_list.toArray();
+        if (snapshot != this.causes) {
+            this.causes = snapshot;
+        }
+        return snapshot;
     }
 
     public Throwable getCause () {
-        if (this.causes == null || this.causes.length == 0) {
+        Throwable[] causes = this.getCauses(null);
+        if (causes == null || causes.length == 0) {
             return null; 
         }
-        if (this.causes.length > 1) {
-            System.err.println("Exception " + this + " has more than one cause, cannot report only first:");
-            for (Throwable cause : causes) {
-                System.err.println("Cause: " + cause);
-            }
+        if (causes.length > 1 && this.multiple_causes_reported == false) {
+            // racing threads may both report, the sink drops the duplicate
+            this.multiple_causes_reported = true;
+            ExceptionDiagnostics.report(null, "has more than one cause, cannot report only first", this);
         }
-        return this.causes[0];
+        return causes[0];
     }
 
+    protected int getCauseCount () {
+        Throwable[] causes = this.getCauses(null);
+        return causes == null ? 0 : causes.length;
+    }
+
+    /**
+       Takes over the causes collected by a
+       <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/TransactionFailureCollector">TransactionFailureCollector</link>
+       in one step, before the failure is published; the array is shared
+       and must not be modified.
+    */
+    protected void initialiseCauses (Throwable[] causes) {
+        this.causes = (causes == null || causes.length == 0 ? null : causes);
+    }
+
+    /**
+       Adds a cause; may be called concurrently, e.g. by parallel tasks
+       contributing to one aggregate failure. Adding is amortised constant
+       time, the causes are copied into an array when read next.
+
+       The cause must not be null, null is rejected with an
+       IllegalArgumentException.
+    */
     public void addCause(CallContext call_context, Throwable cause) {
-        if (this.causes == null) {
-            this.causes = new Throwable[1];
-            this.causes[0] = cause;
-        } else {
-            Throwable[] new_causes = new Throwable[this.causes.length + 1];
-            int i;
-            for (i=0; i<this.causes.length; i++) {
-                new_causes[i] = this.causes[i];
+        ExceptionCauses cause_list = this.cause_list;
+        if (cause_list == null) {
+            ExceptionCauses new_cause_list = new ExceptionCauses();
+            Throwable[] initial_causes = this.causes;
+            if (initial_causes != null) {
+                for (Throwable initial_cause : initial_causes) {
+                    new_cause_list.add(initial_cause);
+                }
             }
-            new_causes[i] = cause;
-            this.causes = new_causes;
+            cause_list = (ExceptionCauses) CAUSE_LIST.compareAndExchange(this, (ExceptionCauses) null, new_cause_list);
+            if (cause_list == null) { cause_list = new_cause_list; }
+        }
+        cause_list.add(cause);
+        ExceptionMessageMemo memo = this.message_memo;
+        if (memo != null) {
+            memo.invalidateMessages();
+        }
+    }
+
+    public ExceptionClassification getClassification () {
+        int cause_count = this.getCauseCount();
+        ExceptionClassification result = this.classification;
+        if (result == null || result.isCurrent(cause_count) == false) {
+            result = this.classification = ExceptionClassification.classifyChain(null, this, cause_count);
         }
+        return result;
+    }
+
+    public long getFingerprint () {
+        long result = this.fingerprint;
+        if (result == 0) {
+            result = this.fingerprint = ExceptionFingerprint.compute(this, this.getStackTrace());
+        }
+        return result;
     }
 
     public String getMessage () {
@@ -122,11 +225,28 @@ public class TransactionFailure extends java.lang.RuntimeException implements Ex
     }
 
     public String getMessage (boolean detailed) {
+        ExceptionMessageMemo memo = this.getMessageMemo();
+        String result_message = memo.getMessage(detailed);
+        if (result_message == null) {
+            int cause_count = this.getCauseCount();
+            long start = (detailed ? ExceptionStatistics.start() : 0);
+            result_message = memo.setMessage(detailed, this.renderMessage(detailed));
+            ExceptionStatistics.MESSAGE_RENDERING.record(start);
+            // a cause added concurrently may have been missed by rendering
+            if (this.getCauseCount() != cause_count) {
+                memo.invalidateMessages();
+            }
+        }
+        return result_message;
+    }
+
+    protected String renderMessage (boolean detailed) {
         String result_message = (this.message == null ? "" : this.message.toString());
-        if (detailed && this.causes != null) {
+        Throwable[] causes = (detailed ? this.getCauses(null) : null);
+        if (causes != null) {
             result_message += "\n[causes: ";
-            for (int i=0; i<this.causes.length; i++) {
-                result_message += (i == 0 ? "" : ",\n") + this.causes[i].toString();
+            for (int i=0; i<causes.length; i++) {
+                result_message += (i == 0 ? "" : ",\n") + causes[i].toString();
             }
             result_message += "]";
         }
@@ -0,0 +1,71 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.message.*;
+
+/** {@EntitySecurityClass User}
+
+    @doclet {@Category Definition} {@SecurityClass User} {@Maturity Final}
+
+    Collects the failures of parallel tasks, e.g. of the batches of a
+    fork-join commit, into one
+    <link xlink:href="oorl://Artefact:JavaClass/com/sphenon/basics/exception/TransactionFailure">TransactionFailure</link>.
+
+    Tasks add their failures concurrently and without locking. At the join
+    point, after all tasks completed, throwIfFailed() throws one
+    TransactionFailure with all collected causes, if there are any.
+*/
+public class TransactionFailureCollector {
+
+    protected Message message;
+    protected ExceptionCauses causes;
+
+    public TransactionFailureCollector (CallContext context, Message message) {
+        this.message = message;
+        this.causes = new ExceptionCauses();
+    }
+
+    public void add (CallContext context, Throwable cause) {
+        this.causes.add(cause);
+    }
+
+    public boolean isEmpty () {
+        return this.causes.isEmpty();
+    }
+
+    public int size () {
+        return this.causes.size();
+    }
+
+    /**
+       Returns a TransactionFailure with all causes collected so far, or
+       null if none were collected.
+    */
+    public TransactionFailure getTransactionFailure (CallContext context) {
+        if (this.causes.isEmpty()) { return null; }
+        TransactionFailure transaction_failure = new TransactionFailure(context, null, this.message);
+        transaction_failure.initialiseCauses(this.causes.toArray());
+        return transaction_failure;
+    }
+
+    public void throwIfFailed (CallContext context) {
+        TransactionFailure transaction_failure = this.getTransactionFailure(context);
+        if (transaction_failure != null) {
+            throw transaction_failure;
+        }
+    }
+}
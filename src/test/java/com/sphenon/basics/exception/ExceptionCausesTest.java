@@ -0,0 +1,123 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExceptionCausesTest {
+
+    static protected final int THREADS = 8;
+    static protected final int CAUSES_PER_THREAD = 1000;
+
+    static protected class TestReturnCode extends ReturnCode {
+        public TestReturnCode (CallContext context, Throwable cause) {
+            super(context, cause, null);
+        }
+    }
+
+    static protected void addConcurrently (final ExceptionCauses causes, final Set<Throwable> added) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException ie) { return; }
+                for (int i = 0; i < CAUSES_PER_THREAD; i++) {
+                    RuntimeException cause = new RuntimeException();
+                    added.add(cause);
+                    causes.add(cause);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void concurrentlyAddedCausesAreAllVisible () throws InterruptedException {
+        ExceptionCauses causes = new ExceptionCauses();
+        Set<Throwable> added = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Throwable,Boolean>()));
+        addConcurrently(causes, added);
+
+        Throwable[] result = causes.toArray();
+        assertEquals(THREADS * CAUSES_PER_THREAD, causes.size());
+        assertEquals(THREADS * CAUSES_PER_THREAD, result.length);
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable,Boolean>());
+        for (Throwable cause : result) {
+            assertTrue(added.contains(cause));
+            assertTrue(seen.add(cause));
+        }
+        assertSame(result, causes.toArray());
+    }
+
+    @Test
+    public void returnCodeReportsConcurrentlyAddedCauses () throws InterruptedException {
+        final CallContext context = RootContext.getRootContext();
+        RuntimeException first = new RuntimeException("first");
+        final TestReturnCode return_code = new TestReturnCode(context, first);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < CAUSES_PER_THREAD; i++) {
+                    return_code.addCause(context, new RuntimeException());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Throwable[] causes = return_code.getCauses(context);
+        assertEquals(1 + THREADS * CAUSES_PER_THREAD, causes.length);
+        assertSame(first, causes[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullCauseIsRejected () {
+        new ExceptionCauses().add(null);
+    }
+
+    @Test
+    public void collectorHandsOverAllCauses () throws InterruptedException {
+        final TransactionFailureCollector collector = new TransactionFailureCollector(null, null);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < CAUSES_PER_THREAD; i++) {
+                    collector.add(null, new RuntimeException());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(THREADS * CAUSES_PER_THREAD, collector.size());
+        assertEquals(THREADS * CAUSES_PER_THREAD, collector.getTransactionFailure(RootContext.getRootContext()).getCauses(null).length);
+    }
+}
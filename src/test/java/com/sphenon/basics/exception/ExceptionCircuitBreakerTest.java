@@ -0,0 +1,118 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExceptionCircuitBreakerTest {
+
+    static protected final long OPEN_MILLIS = 50;
+
+    static protected void failOnce (ExceptionCircuitBreaker.Circuit circuit) {
+        try {
+            circuit.perform(null, context -> { throw ExceptionEnvironmentFailure.createExceptionEnvironmentFailure(context, null); });
+        } catch (ExceptionEnvironmentFailure f) {
+        }
+    }
+
+    static protected ExceptionCircuitBreaker.Circuit openCircuit () {
+        ExceptionCircuitBreaker breaker = new ExceptionCircuitBreaker(null, 60000, 4, 50, OPEN_MILLIS);
+        ExceptionCircuitBreaker.Circuit circuit = breaker.getCircuit(null, "resource");
+        for (int i = 0; i < 4; i++) {
+            failOnce(circuit);
+        }
+        assertEquals(ExceptionCircuitBreaker.State.OPEN, circuit.getState());
+        return circuit;
+    }
+
+    @Test
+    public void opensWhenFailuresReachThreshold () {
+        ExceptionCircuitBreaker breaker = new ExceptionCircuitBreaker(null, 60000, 4, 50, OPEN_MILLIS);
+        ExceptionCircuitBreaker.Circuit circuit = breaker.getCircuit(null, "resource");
+        assertSame(circuit, breaker.getCircuit(null, "resource"));
+        circuit.perform(null, context -> 1);
+        circuit.perform(null, context -> 1);
+        failOnce(circuit);
+        assertEquals(ExceptionCircuitBreaker.State.CLOSED, circuit.getState());
+        failOnce(circuit);
+        assertEquals(ExceptionCircuitBreaker.State.OPEN, circuit.getState());
+    }
+
+    @Test
+    public void openCircuitRejectsWithSharedException () {
+        ExceptionCircuitBreaker.Circuit circuit = openCircuit();
+        ExceptionCircuitOpen first = null, second = null;
+        try { circuit.perform(null, context -> 1); } catch (ExceptionCircuitOpen o) { first = o; }
+        try { circuit.perform(null, context -> 1); } catch (ExceptionCircuitOpen o) { second = o; }
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(2, circuit.getRejectedCount());
+        assertEquals(0, first.getStackTrace().length);
+
+        first.setStackTrace(new StackTraceElement[] { new StackTraceElement("C", "m", "C.java", 1) });
+        assertEquals(0, first.getStackTrace().length);
+    }
+
+    @Test
+    public void successfulProbeClosesCircuit () throws InterruptedException {
+        ExceptionCircuitBreaker.Circuit circuit = openCircuit();
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertEquals(Integer.valueOf(7), circuit.perform(null, context -> 7));
+        assertEquals(ExceptionCircuitBreaker.State.CLOSED, circuit.getState());
+    }
+
+    @Test
+    public void failingProbeOpensCircuitAgain () throws InterruptedException {
+        ExceptionCircuitBreaker.Circuit circuit = openCircuit();
+        Thread.sleep(OPEN_MILLIS + 10);
+        failOnce(circuit);
+        assertEquals(ExceptionCircuitBreaker.State.OPEN, circuit.getState());
+    }
+
+    @Test
+    public void probeEndingWithOtherThrowableKeepsCircuitHalfOpen () throws InterruptedException {
+        ExceptionCircuitBreaker.Circuit circuit = openCircuit();
+        Thread.sleep(OPEN_MILLIS + 10);
+        try {
+            circuit.perform(null, context -> { throw new IllegalStateException(); });
+        } catch (IllegalStateException ise) {
+        }
+        assertEquals(ExceptionCircuitBreaker.State.HALF_OPEN, circuit.getState());
+        try {
+            circuit.perform(null, context -> 1);
+            fail("second probe let through within the open duration");
+        } catch (ExceptionCircuitOpen o) {
+        }
+        Thread.sleep(OPEN_MILLIS + 10);
+        circuit.perform(null, context -> 1);
+        assertEquals(ExceptionCircuitBreaker.State.CLOSED, circuit.getState());
+    }
+
+    @Test
+    public void numberOfCircuitsIsBounded () {
+        ExceptionCircuitBreaker breaker = new ExceptionCircuitBreaker(null, 60000, 4, 50, OPEN_MILLIS, 2);
+        breaker.getCircuit(null, "a");
+        breaker.getCircuit(null, "b");
+        ExceptionCircuitBreaker.Circuit c = breaker.getCircuit(null, "c");
+        assertEquals(2, breaker.getCircuitCount());
+        assertNotSame(c, breaker.getCircuit(null, "c"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFailurePercentageIsRejected () {
+        new ExceptionCircuitBreaker(null, 60000, 4, 0, OPEN_MILLIS);
+    }
+}
@@ -0,0 +1,137 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExceptionCodecTest {
+
+    static protected ByteBuffer encode (Throwable... throwables) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        ExceptionEncoder encoder = new ExceptionEncoder(null);
+        for (Throwable t : throwables) {
+            encoder.encode(null, t, buffer);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // the decoded frames do not know about class loaders and modules
+    static protected void assertSameFrames (StackTraceElement[] expected, StackTraceElement[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    @Test
+    public void roundTripKeepsClassesMessagesFramesAndCauses () {
+        RuntimeException inner = new RuntimeException("inner");
+        IllegalStateException outer = new IllegalStateException("outer", inner);
+        ByteBuffer buffer = encode(outer, new RuntimeException("second"));
+
+        ExceptionDecoder decoder = new ExceptionDecoder(null);
+        DecodedException decoded = decoder.decode(null, buffer);
+        assertEquals(IllegalStateException.class.getName(), decoded.getClassName());
+        assertEquals("outer", decoded.getMessage());
+        assertEquals(ExceptionFingerprint.get(outer), decoded.getFingerprint());
+        assertSameFrames(outer.getStackTrace(), decoded.getStackTrace());
+        assertEquals(1, decoded.getCauses().length);
+        assertEquals("inner", decoded.getCauses()[0].getMessage());
+        assertNull(decoded.getCauses()[0].getCauses());
+
+        // the second record refers to names and frames of the first one
+        DecodedException second = decoder.decode(null, buffer);
+        assertEquals("second", second.getMessage());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void incompleteRecordLeavesDecoderUnchanged () {
+        ByteBuffer buffer = encode(new RuntimeException("first"), new RuntimeException("second"));
+        ExceptionDecoder decoder = new ExceptionDecoder(null);
+        decoder.decode(null, buffer);
+
+        int position = buffer.position();
+        ByteBuffer partial = buffer.duplicate();
+        partial.limit(position + (buffer.remaining() / 2));
+        try {
+            decoder.decode(null, partial);
+            fail("incomplete record decoded");
+        } catch (BufferUnderflowException bue) {
+            assertEquals(position, partial.position());
+        }
+        assertEquals("second", decoder.decode(null, buffer).getMessage());
+    }
+
+    @Test
+    public void malformedRecordIsRejectedAndLeavesDecoderUnchanged () {
+        ByteBuffer buffer = encode(new RuntimeException("first"), new RuntimeException("second"));
+        ExceptionDecoder decoder = new ExceptionDecoder(null);
+        decoder.decode(null, buffer);
+
+        ByteBuffer malformed = ByteBuffer.allocate(64);
+        malformed.put(ExceptionCodec.VERSION);
+        malformed.put((byte) 1); ExceptionCodec.putText(malformed, "Malformed");    // class, a new name
+        malformed.put((byte) 0); malformed.put((byte) 0);                          // message, help
+        malformed.putLong(0);
+        malformed.put((byte) 1);                                                   // one frame
+        malformed.put((byte) 100);                                                 // unknown frame
+        malformed.flip();
+        try {
+            decoder.decode(null, malformed);
+            fail("malformed record decoded");
+        } catch (IllegalArgumentException iae) {
+            assertEquals(0, malformed.position());
+        }
+        // the name entered by the malformed record was withdrawn, so the
+        // dictionaries still match the encoder's
+        assertEquals("second", decoder.decode(null, buffer).getMessage());
+    }
+
+    @Test
+    public void unsupportedVersionIsRejected () {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        buffer.put((byte) (ExceptionCodec.VERSION + 1));
+        buffer.flip();
+        try {
+            new ExceptionDecoder(null).decode(null, buffer);
+            fail("record of unsupported version decoded");
+        } catch (IllegalArgumentException iae) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void excessivelyNestedCausesAreRejected () {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        buffer.put(ExceptionCodec.VERSION);
+        for (int i = 0; i <= ExceptionCodec.MAXIMUM_CAUSE_DEPTH + 1; i++) {
+            buffer.put((byte) 0); buffer.put((byte) 0); buffer.put((byte) 0);     // class, message, help
+            buffer.putLong(0);
+            buffer.put((byte) 0);                                                  // no frames
+            buffer.put((byte) 1);                                                  // one cause
+        }
+        buffer.flip();
+        new ExceptionDecoder(null).decode(null, buffer);
+    }
+}
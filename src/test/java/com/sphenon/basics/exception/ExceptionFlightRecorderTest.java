@@ -0,0 +1,133 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExceptionFlightRecorderTest {
+
+    static protected class StacklessReturnCode extends ReturnCode {
+        public StacklessReturnCode (CallContext context) {
+            super(context, null, null, null, true);
+        }
+    }
+
+    protected CallContext context;
+    protected ExceptionFlightRecorder recorder;
+
+    @Before
+    public void setUp () {
+        this.context = RootContext.getRootContext();
+        this.recorder = new ExceptionFlightRecorder(this.context, 256, 1024, 8);
+        ExceptionFlightRecorder.setCurrent(this.context, this.recorder);
+    }
+
+    @After
+    public void tearDown () {
+        ExceptionFlightRecorder.setCurrent(this.context, null);
+        ExceptionFlightRecorder.setRecordingStacklessReturnCodes(this.context, false);
+    }
+
+    protected ExceptionFlightRecorder.Record last () {
+        List<ExceptionFlightRecorder.Record> records = this.recorder.snapshot(this.context);
+        return records.get(records.size() - 1);
+    }
+
+    @Test
+    public void recordsClassFramesAndFingerprint () {
+        ExceptionError error = ExceptionInvalidState.createExceptionInvalidState(this.context, null);
+        ExceptionFlightRecorder.Record record = this.last();
+        assertEquals(ExceptionInvalidState.class.getName(), record.getClassName());
+        assertEquals("ExceptionError", record.getTaxonomy());
+        assertEquals(Thread.currentThread().getId(), record.getThreadId());
+        assertFalse(record.isTruncated());
+        assertTrue(record.getFrames().length > 0);
+        assertEquals(error.getFingerprint(), record.getFingerprint());
+
+        TransactionFailure failure = TransactionFailure.createTransactionFailure(this.context, null);
+        record = this.last();
+        assertEquals("TransactionFailure", record.getTaxonomy());
+        assertEquals(ExceptionFlightRecorderTest.class.getName(), record.getFrames()[0].getClassName());
+        assertEquals(failure.getFingerprint(), record.getFingerprint());
+    }
+
+    @Test
+    public void stacklessReturnCodesAreRecordedOnlyIfSwitchedOn () {
+        new StacklessReturnCode(this.context);
+        assertEquals(0, this.recorder.getRecordedCount());
+        ExceptionFlightRecorder.setRecordingStacklessReturnCodes(this.context, true);
+        new StacklessReturnCode(this.context);
+        assertEquals(1, this.recorder.getRecordedCount());
+        assertEquals(0, this.last().getFrames().length);
+    }
+
+    @Test
+    public void concurrentlyWrittenRecordsAreReadConsistently () throws InterruptedException {
+        final int writers = 4, exceptions_per_writer = 2000;
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final Throwable[] failure = new Throwable[1];
+        Thread reader = new Thread(() -> {
+            try {
+                while (writing.get()) {
+                    long previous = 0;
+                    for (ExceptionFlightRecorder.Record record : this.recorder.snapshot(this.context)) {
+                        assertTrue(record.getSequence() > previous);
+                        previous = record.getSequence();
+                        assertTrue(record.getClassName().equals(ExceptionInvalidState.class.getName()) || record.getClassName().equals(ExceptionLimitation.class.getName()));
+                        assertTrue(record.getFrames().length > 0);
+                        assertEquals(ExceptionFingerprint.compute(record.getClassName(), record.getFrames()), record.getFingerprint());
+                    }
+                }
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        });
+        reader.start();
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            final boolean limitation = (w % 2 == 0);
+            threads[w] = new Thread(() -> {
+                for (int i = 0; i < exceptions_per_writer; i++) {
+                    if (limitation) {
+                        ExceptionLimitation.createExceptionLimitation(this.context, null);
+                    } else {
+                        ExceptionInvalidState.createExceptionInvalidState(this.context, null);
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writing.set(false);
+        reader.join();
+        assertNull(failure[0]);
+
+        assertEquals(writers * exceptions_per_writer, this.recorder.getRecordedCount());
+        List<ExceptionFlightRecorder.Record> records = this.recorder.snapshot(this.context);
+        assertTrue(records.size() > 0);
+        assertTrue(records.size() <= this.recorder.getCapacity());
+    }
+}
@@ -0,0 +1,98 @@
+package com.sphenon.basics.exception;
+
+/****************************************************************************
+  Copyright 2001-2024 Sphenon GmbH
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+  use this file except in compliance with the License. You may obtain a copy
+  of the License at http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+  License for the specific language governing permissions and limitations
+  under the License.
+*****************************************************************************/
+
+import com.sphenon.basics.context.*;
+import com.sphenon.basics.context.classes.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExceptionInternedStackFramesTest {
+
+    protected CallContext context;
+    protected ExceptionStackTracePolicy previous_policy;
+
+    @Before
+    public void setUp () {
+        this.context = RootContext.getRootContext();
+        this.previous_policy = ExceptionStackTracePolicy.getDefault(this.context);
+        ExceptionStackTracePolicy.setDefault(this.context, ExceptionStackTracePolicy.INTERNED);
+    }
+
+    @After
+    public void tearDown () {
+        ExceptionStackTracePolicy.setDefault(this.context, this.previous_policy);
+    }
+
+    static protected String print (Throwable t) {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    @Test
+    public void framesAreKeptAfterPrinting () {
+        ExceptionError error = ExceptionInvalidState.createExceptionInvalidState(this.context, null);
+        StackTraceElement[] before = error.getStackTrace();
+        assertTrue(before.length > 0);
+
+        String printed = print(error);
+        assertTrue(printed.contains(before[0].toString()));
+        assertArrayEquals(before, error.getStackTrace());
+        assertEquals(printed, print(error));
+    }
+
+    @Test
+    public void causesShareTheirCommonFrames () {
+        ExceptionError cause = ExceptionInvalidState.createExceptionInvalidState(this.context, null);
+        ExceptionError error = ExceptionEnvironmentFailure.createExceptionEnvironmentFailure(this.context, cause, null);
+        StackTraceElement[] cause_frames = cause.getStackTrace();
+        StackTraceElement[] frames = error.getStackTrace();
+        // the frames below this test method are the same for both
+        assertEquals(frames[frames.length - 1], cause_frames[cause_frames.length - 1]);
+    }
+
+    @Test(timeout = 20000)
+    public void cyclicCausesCanBePrintedConcurrently () throws InterruptedException {
+        RuntimeException link = new RuntimeException("link");
+        final ExceptionError b = ExceptionEnvironmentFailure.createExceptionEnvironmentFailure(this.context, link, null);
+        final ExceptionError a = ExceptionEnvironmentFailure.createExceptionEnvironmentFailure(this.context, b, null);
+        link.initCause(a);
+
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[] {
+            new Thread(() -> { try { for (int i = 0; i < 500; i++) { a.getStackTrace(); print(b); } } catch (Throwable t) { failure[0] = t; } }),
+            new Thread(() -> { try { for (int i = 0; i < 500; i++) { b.getStackTrace(); print(a); } } catch (Throwable t) { failure[0] = t; } })
+        };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0]);
+
+        String printed = print(a);
+        assertTrue(printed.contains("CIRCULAR REFERENCE"));
+        assertTrue(a.getStackTrace().length > 0);
+        assertTrue(b.getStackTrace().length > 0);
+    }
+}